@@ -1,8 +1,8 @@
 import {Injectable} from '@angular/core';
 import {HttpClient} from '@angular/common/http';
 import {Student} from '../models/student.model';
-import {catchError, concatMap, filter, retry, take} from 'rxjs/operators';
-import {Observable, throwError, timer} from 'rxjs';
+import {catchError, retry} from 'rxjs/operators';
+import {Observable, Subscription, throwError} from 'rxjs';
 import {VmModel} from '../models/vm-model.model';
 import {Professor} from '../models/professor.model';
 import {Router} from '@angular/router';
@@ -25,15 +25,43 @@ export class VmService {
   constructor(private httpClient: HttpClient, private router: Router) { }
 
   heartbeat(vmId: number): Observable<boolean> {
-    return timer(10000, 10000).pipe(
-      concatMap(() => this.httpClient.get<boolean>(`${this.API_PATH}/heartbeat/${vmId}`)),
-      catchError(err => {
-        console.error(err);
-        return throwError(`heartbeat error: ${err.message}`);
-      }),
-      filter(beat => !beat),
-      take(1)
-    );
+    return new Observable<boolean>(observer => {
+      let source: EventSource;
+      let fallback: Subscription;
+
+      const powerOff = () => {
+        observer.next(false);
+        observer.complete();
+      };
+
+      const open = () => {
+        const token = encodeURIComponent(localStorage.getItem('auth_token'));
+        source = new EventSource(`${this.API_PATH}/stream?vmIds=${vmId}&access_token=${token}`);
+        source.addEventListener('power', (event: MessageEvent) => {
+          if (!JSON.parse(event.data).active)
+            powerOff();
+        });
+        source.addEventListener('removed', () => observer.error('heartbeat error: vm removed'));
+        source.onerror = () => {
+          // EventSource reconnects by itself unless the server refused the stream (e.g. expired token)
+          if (source.readyState !== EventSource.CLOSED)
+            return;
+          // a plain request goes through the interceptor, which refreshes the token before reopening
+          fallback = this.httpClient.get<boolean>(`${this.API_PATH}/heartbeat/${vmId}`).subscribe(
+            active => active ? open() : powerOff(),
+            err => {
+              console.error(err);
+              observer.error(`heartbeat error: ${err.message}`);
+            });
+        };
+      };
+
+      open();
+      return () => {
+        source.close();
+        fallback?.unsubscribe();
+      };
+    });
   }
 
   getVmModelProfessor(vmModelId: number): Observable<Professor> {
@@ -4,19 +4,27 @@ import it.polito.ai.virtualLabs.services.LabService;
 import it.polito.ai.virtualLabs.services.TeamService;
 import it.polito.ai.virtualLabs.services.VmService;
 import it.polito.ai.virtualLabs.services.exceptions.team.TeamServiceException;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class VirtualLabsApplication {
 
     @Bean
-    ModelMapper modelMapper() {
-        return new ModelMapper();
+    static HibernatePropertiesCustomizer jdbcBatching() {
+        //group inserts and updates of the same table into jdbc batches
+        //static, so that building it does not create this class and its services before the entity manager factory
+        return properties -> {
+            properties.putIfAbsent("hibernate.jdbc.batch_size", 50);
+            properties.putIfAbsent("hibernate.order_inserts", true);
+            properties.putIfAbsent("hibernate.order_updates", true);
+        };
     }
 
     @Autowired
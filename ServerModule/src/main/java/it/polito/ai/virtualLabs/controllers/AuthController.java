@@ -4,6 +4,7 @@ import it.polito.ai.virtualLabs.dtos.UserDTO;
 import it.polito.ai.virtualLabs.repositories.UserRepository;
 import it.polito.ai.virtualLabs.services.AuthService;
 import it.polito.ai.virtualLabs.services.NotificationService;
+import it.polito.ai.virtualLabs.services.TokenStore;
 import it.polito.ai.virtualLabs.services.exceptions.team.TokenNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -20,7 +21,6 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.mail.MessagingException;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -120,7 +120,7 @@ public class AuthController {
             if(authService.isRefreshTokenExpired(token))
                 throw new ResponseStatusException(HttpStatus.NETWORK_AUTHENTICATION_REQUIRED, "Refresh token is expired");
 
-            String decodedUsername = new String(Base64.getDecoder().decode(token)).split("\\|")[1];
+            String decodedUsername = TokenStore.getUsername(token);
             return authService.assignToken(decodedUsername, false);
         } catch(UsernameNotFoundException | TokenNotFoundException | IllegalStateException e) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
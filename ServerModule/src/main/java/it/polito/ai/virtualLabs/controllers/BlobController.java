@@ -0,0 +1,111 @@
+package it.polito.ai.virtualLabs.controllers;
+
+import it.polito.ai.virtualLabs.services.BlobStore;
+import it.polito.ai.virtualLabs.services.LabService;
+import org.apache.catalina.Globals;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@RestController
+@RequestMapping("blobs")
+public class BlobController {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    //only the authorized user may keep a copy, shared caches must not serve it to others
+    private static final String CACHE_CONTROL = "private, max-age=31536000, immutable";
+
+    @Autowired
+    BlobStore blobStore;
+    @Autowired
+    LabService labService;
+
+    @GetMapping("/{key}")
+    public void blob(@PathVariable String key, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        //a blob can be read by whoever can read the report of a version that uses it
+        if(!blobStore.isValidKey(key) || !labService.canReadBlob(key) || !blobStore.exists(key))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Blob " + key + " was not found");
+
+        //the key is the hash of the content, so it is also a strong etag that never changes
+        String eTag = "\"" + key + "\"";
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if(ifNoneMatch != null && Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(tag -> tag.equals("*") || tag.equals(eTag) || tag.equals("W/" + eTag))) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        long size = blobStore.size(key);
+        long start = 0;
+        long end = size - 1;
+
+        //a range is honoured only if the client still holds this same content
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if(range != null && (ifRange == null || ifRange.equals(eTag))) {
+            Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+            //multiple ranges are not supported, the whole content is sent instead
+            if(matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                try {
+                    if(matcher.group(1).isEmpty()) {
+                        start = Math.max(0, size - Long.parseLong(matcher.group(2)));
+                    } else {
+                        start = Long.parseLong(matcher.group(1));
+                        if(!matcher.group(2).isEmpty())
+                            end = Math.min(end, Long.parseLong(matcher.group(2)));
+                    }
+                } catch (NumberFormatException ex) {
+                    //positions beyond a long are beyond the content too
+                    start = end + 1;
+                }
+
+                if(start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    return;
+                }
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+
+        long length = end - start + 1;
+        //the store only holds the images of versions and reviews
+        response.setContentType(MediaType.IMAGE_PNG_VALUE);
+        response.setContentLengthLong(length);
+        if(request.getMethod().equals("HEAD") || length == 0)
+            return;
+
+        //the container sends a local file with sendfile, without copying it through the jvm,
+        //a channel over the servlet stream is the fallback and goes through a user-space buffer
+        Optional<Path> file = blobStore.getFile(key);
+        if(file.isPresent() && Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+            request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, file.get().toAbsolutePath().toString());
+            request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, start);
+            request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, end + 1);
+            return;
+        }
+        blobStore.transferTo(key, start, length, Channels.newChannel(response.getOutputStream()));
+    }
+}
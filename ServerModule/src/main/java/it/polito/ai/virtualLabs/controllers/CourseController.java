@@ -1,25 +1,33 @@
 package it.polito.ai.virtualLabs.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import it.polito.ai.virtualLabs.dtos.*;
+import it.polito.ai.virtualLabs.metrics.SqlBudget;
 import it.polito.ai.virtualLabs.services.LabService;
 import it.polito.ai.virtualLabs.services.TeamService;
 import it.polito.ai.virtualLabs.services.VmService;
 import it.polito.ai.virtualLabs.services.exceptions.file.ParsingFileException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("API/courses")
@@ -31,6 +39,8 @@ public class CourseController {
     LabService labService;
     @Autowired
     VmService vmService;
+    @Autowired
+    ObjectMapper objectMapper;
 
     @GetMapping({"","/"})
     public List<CourseDTO> all() {
@@ -39,6 +49,7 @@ public class CourseController {
     }
 
     @GetMapping("/{courseName}")
+    @SqlBudget(1)
     public CourseDTO getOne(@PathVariable String courseName) {
         Optional<CourseDTO> course = teamService.getCourse(courseName);
         if(!course.isPresent())
@@ -46,7 +57,26 @@ public class CourseController {
         return ModelHelper.enrich(course.get());
     }
 
+    @GetMapping("/{courseName}/dashboard")
+    @SqlBudget(7)
+    public CourseDashboardDTO dashboard(@PathVariable String courseName) {
+        CourseDashboardDTO dashboard = teamService.getCourseDashboard(courseName);
+        ModelHelper.enrich(dashboard.getCourse());
+        dashboard.getProfessors().forEach(ModelHelper::enrich);
+        dashboard.getEnrolled().forEach(ModelHelper::enrich);
+        dashboard.getTeams().forEach(ModelHelper::enrich);
+        dashboard.getTeamProposals().forEach(ModelHelper::enrich);
+        dashboard.getAssignments().forEach(ModelHelper::enrich);
+        if(dashboard.getVmModel() != null)
+            ModelHelper.enrich(dashboard.getVmModel());
+
+        if(!LinkTemplates.isCompact())
+            dashboard.add(LinkTemplates.link(CourseController.class, "dashboard", courseName).withSelfRel());
+        return dashboard;
+    }
+
     @GetMapping("/{courseName}/enrolled")
+    @SqlBudget(2)
     public List<StudentDTO> enrolledStudents(@PathVariable String courseName) {
         List<StudentDTO> students = teamService.getEnrolledStudents(courseName);
         for(StudentDTO s : students)
@@ -55,14 +85,17 @@ public class CourseController {
     }
 
     @GetMapping("/{courseName}/notEnrolled")
-    public List<StudentDTO> notEnrolledStudents(@PathVariable String courseName) {
-        List<StudentDTO> students = teamService.getStudentsNotInCourse(courseName);
-        for(StudentDTO s : students)
-            ModelHelper.enrich(s);
-        return students;
+    public void notEnrolledStudents(@PathVariable String courseName, @RequestParam(required = false) String after,
+                                    @RequestParam(required = false) Integer limit, HttpServletResponse response) throws IOException {
+        StreamingHelper.checkLimit(limit);
+        Stream<StudentDTO> students = limit != null ?
+                teamService.getStudentsNotInCourse(courseName, after, limit).stream() :
+                StreamingHelper.keyset(after, (afterId, size) -> teamService.getStudentsNotInCourse(courseName, afterId, size), StudentDTO::getId);
+        StreamingHelper.writeJsonArray(response, objectMapper, students.map(ModelHelper::enrich));
     }
 
     @GetMapping("/{courseName}/teamedUp")
+    @SqlBudget(3)
     public List<StudentDTO> teamedUpStudents(@PathVariable String courseName) {
         List<StudentDTO> students = teamService.getStudentsInTeams(courseName);
         for(StudentDTO s : students)
@@ -71,6 +104,7 @@ public class CourseController {
     }
 
     @GetMapping("/{courseName}/notTeamedUp")
+    @SqlBudget(2)
     public List<StudentDTO> notTeamedUpStudents(@PathVariable String courseName) {
         List<StudentDTO> students = teamService.getAvailableStudents(courseName);
         for(StudentDTO s : students)
@@ -79,6 +113,7 @@ public class CourseController {
     }
 
     @GetMapping("/{courseName}/teams")
+    @SqlBudget(2)
     public List<TeamDTO> teams(@PathVariable String courseName) {
         List<TeamDTO> teams = teamService.getTeamsForCourse(courseName);
         for(TeamDTO t : teams)
@@ -93,6 +128,7 @@ public class CourseController {
     }
 
     @GetMapping("/{courseName}/teamProposals")
+    @SqlBudget(2)
     public List<TeamProposalDTO> teamProposals(@PathVariable String courseName) {
         List<TeamProposalDTO> teamProposals = teamService.getTeamProposalsForCourse(courseName);
         teamProposals = teamService.cleanTeamProposals(teamProposals);
@@ -103,6 +139,7 @@ public class CourseController {
     }
 
     @GetMapping("/{courseName}/assignments")
+    @SqlBudget(3)
     public List<AssignmentDTO> assignments(@PathVariable String courseName) {
         List<AssignmentDTO> assignments = labService.getCourseAssignments(courseName);
         for(AssignmentDTO a : assignments) {
@@ -112,12 +149,14 @@ public class CourseController {
     }
 
     @GetMapping("/{courseName}/vmModel")
+    @SqlBudget(1)
     public VmModelDTO vmModel(@PathVariable String courseName) {
         Optional<VmModelDTO> vmModel = vmService.getCourseVmModel(courseName);
         return vmModel.map(ModelHelper::enrich).orElse(null);
     }
 
     @GetMapping("/{courseName}/professors")
+    @SqlBudget(2)
     public List<ProfessorDTO> professors(@PathVariable String courseName) {
         List<ProfessorDTO> professors = teamService.getProfessorsForCourse(courseName);
         for(ProfessorDTO p : professors)
@@ -156,15 +195,32 @@ public class CourseController {
 
     @PostMapping("/{courseName}/checkCsv")
     @ResponseStatus(HttpStatus.OK)
-    public String checkCsv(@PathVariable String courseName, @RequestParam("file") MultipartFile file) {
-        try {
-            Reader reader = new BufferedReader(new InputStreamReader(file.getInputStream()));
-            return teamService.checkCsv(reader, courseName);
+    public void checkCsv(@PathVariable String courseName, @RequestParam("file") MultipartFile file,
+                         HttpServletResponse response) {
+        //the result is spooled to a file while the roster is read, so large rosters are never held in memory,
+        //and it is sent only once the whole roster is parsed and the transaction is over
+        Path result;
+        try (Reader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
+            result = teamService.checkCsv(reader, courseName);
         } catch (ParsingFileException e) {
             throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
         } catch(IOException ex) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
+
+        try {
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            response.setContentLengthLong(Files.size(result));
+            Files.copy(result, response.getOutputStream());
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            try {
+                Files.deleteIfExists(result);
+            } catch(IOException ignored) {
+            }
+        }
     }
 
     @PostMapping("/{courseName}/enrollMany")
@@ -176,6 +232,16 @@ public class CourseController {
         return teamService.enrollAllStudents(studentIdList, courseName);
     }
 
+    @PostMapping(value = "/{courseName}/enrollMany", params = "report")
+    @ResponseStatus(HttpStatus.OK)
+    public Map<String, TeamService.EnrollmentOutcome> enrollStudentsWithReport(@PathVariable String courseName,
+                                                                            @RequestBody List<String> studentIdList) {
+        if(!teamService.getCourse(courseName).isPresent())
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+        return teamService.enrollStudents(studentIdList, courseName);
+    }
+
     @PostMapping("/{courseName}/setVmModel")
     @ResponseStatus(HttpStatus.CREATED)
     public void setVmModelToCourse(@PathVariable String courseName,
@@ -222,16 +288,13 @@ public class CourseController {
 
     @PostMapping("/{courseName}/unrollMany")
     @ResponseStatus(HttpStatus.OK)
-    public void removeStudentsFromCourse(@PathVariable String courseName, @RequestBody List<String> studentIds) {
+    public Map<String, TeamService.EnrollmentOutcome> removeStudentsFromCourse(@PathVariable String courseName, @RequestBody List<String> studentIds) {
         Optional<CourseDTO> course = teamService.getCourse(courseName);
 
         if(!course.isPresent())
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The course named '"+ courseName +"' was not found");
 
-        for(String studentId : studentIds) {
-            teamService.removeStudentFromCourse(studentId, courseName);
-            teamService.removeStudentFromTeamByCourse(studentId, courseName);
-        }
+        return teamService.unenrollStudents(studentIds, courseName);
     }
 
     @PutMapping("/{courseName}/editVmModel")
@@ -5,12 +5,15 @@ import it.polito.ai.virtualLabs.services.LabService;
 import it.polito.ai.virtualLabs.services.NotificationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.InputStream;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -126,7 +129,20 @@ public class LabController {
 
     @PostMapping("/versions/{versionId}/review")
     @ResponseStatus(HttpStatus.CREATED)
-    public void reviewVersion(@PathVariable Long versionId, @RequestBody String review) {
+    public void reviewVersion(@PathVariable Long versionId, InputStream review) {
+        //the image is sent as base64 text, decode it while it is read;
+        //a character outside the alphabet fails the read, so a malformed body is never stored
+        submitReview(versionId, Base64.getDecoder().wrap(review));
+    }
+
+    @PostMapping(value = "/versions/{versionId}/review",
+            consumes = {MediaType.IMAGE_PNG_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    @ResponseStatus(HttpStatus.CREATED)
+    public void reviewVersionBinary(@PathVariable Long versionId, InputStream review) {
+        submitReview(versionId, review);
+    }
+
+    private void submitReview(Long versionId, InputStream review) {
         if(!labService.reviewVersion(versionId, review))
             throw new ResponseStatusException(HttpStatus.CONFLICT, "An error occurred");
 
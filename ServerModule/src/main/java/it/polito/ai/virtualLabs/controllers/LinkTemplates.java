@@ -0,0 +1,106 @@
+package it.polito.ai.virtualLabs.controllers;
+
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.hateoas.Link;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//builds links from the mappings of the controllers, resolved once, instead of proxying a controller for every link
+public class LinkTemplates {
+
+    private static final String BASE_URI_ATTRIBUTE = LinkTemplates.class.getName() + ".baseUri";
+    private static final String COMPACT_ATTRIBUTE = LinkTemplates.class.getName() + ".compact";
+    private static final String COMPACT_PARAMETER = "compact";
+
+    //"controller#method" -> path template of the method, e.g. /API/courses/{courseName}/teams
+    private static final Map<String, String> templates = new ConcurrentHashMap<>();
+
+    public static Link link(Class<?> controller, String methodName, Object... parameters) {
+        String template = templates.computeIfAbsent(controller.getName() + "#" + methodName,
+                key -> resolve(controller, methodName));
+        return new Link(baseUri() + expand(template, parameters));
+    }
+
+    public static Link link(Class<?> controller, Object id) {
+        String template = templates.computeIfAbsent(controller.getName(), key -> join(path(controller), "{id}"));
+        return new Link(baseUri() + expand(template, id));
+    }
+
+    //clients can ask for payloads without links with ?compact=true
+    public static boolean isCompact() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(!(attributes instanceof ServletRequestAttributes))
+            return false;
+
+        Boolean compact = (Boolean) attributes.getAttribute(COMPACT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if(compact == null) {
+            compact = Boolean.parseBoolean(((ServletRequestAttributes) attributes).getRequest().getParameter(COMPACT_PARAMETER));
+            attributes.setAttribute(COMPACT_ATTRIBUTE, compact, RequestAttributes.SCOPE_REQUEST);
+        }
+        return compact;
+    }
+
+    private static String baseUri() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(!(attributes instanceof ServletRequestAttributes))
+            return "";
+
+        //computed once per request, the same for every link of the response
+        String baseUri = (String) attributes.getAttribute(BASE_URI_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if(baseUri == null) {
+            baseUri = ServletUriComponentsBuilder.fromCurrentServletMapping().build().toUriString();
+            if(baseUri.endsWith("/"))
+                baseUri = baseUri.substring(0, baseUri.length() - 1);
+            attributes.setAttribute(BASE_URI_ATTRIBUTE, baseUri, RequestAttributes.SCOPE_REQUEST);
+        }
+        return baseUri;
+    }
+
+    private static String resolve(Class<?> controller, String methodName) {
+        Method method = Arrays.stream(controller.getMethods())
+                .filter(m -> m.getName().equals(methodName) && AnnotatedElementUtils.hasAnnotation(m, GetMapping.class))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No GET mapping named " + methodName + " in " + controller.getSimpleName()));
+
+        RequestMapping mapping = AnnotatedElementUtils.findMergedAnnotation(method, RequestMapping.class);
+        String path = mapping != null && mapping.path().length > 0 ? mapping.path()[0] : "";
+        return join(path(controller), path);
+    }
+
+    private static String path(Class<?> controller) {
+        RequestMapping mapping = AnnotatedElementUtils.findMergedAnnotation(controller, RequestMapping.class);
+        return mapping != null && mapping.path().length > 0 ? join("", mapping.path()[0]) : "";
+    }
+
+    private static String join(String base, String path) {
+        if(path.isEmpty())
+            return base;
+        return base + (path.startsWith("/") ? path : "/" + path);
+    }
+
+    private static String expand(String template, Object... parameters) {
+        StringBuilder uri = new StringBuilder(template.length() + 16);
+        int start = 0;
+        for(Object parameter : parameters) {
+            int open = template.indexOf('{', start);
+            int close = template.indexOf('}', open);
+            if(open < 0 || close < 0)
+                break;
+            uri.append(template, start, open)
+                    .append(UriUtils.encodePathSegment(String.valueOf(parameter), StandardCharsets.UTF_8));
+            start = close + 1;
+        }
+        return uri.append(template, start, template.length()).toString();
+    }
+}
@@ -9,8 +9,6 @@ import org.springframework.hateoas.Link;
 import java.util.List;
 import java.util.Optional;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 
 public class ModelHelper {
 
@@ -25,14 +23,17 @@ public class ModelHelper {
 
 
     public static CourseDTO enrich(CourseDTO courseDTO) {
+        if(LinkTemplates.isCompact())
+            return courseDTO;
+
         //create links
-        Link selfLink = linkTo(CourseController.class).slash(courseDTO.getName()).withSelfRel();
-        Link enrolledLink = linkTo(methodOn(CourseController.class).enrolledStudents(courseDTO.getName())).withRel("enrolled");
-        Link teamsLink = linkTo(methodOn(CourseController.class).teams(courseDTO.getName())).withRel("teams");
-        Link teamProposalsLink = linkTo(methodOn(CourseController.class).teamProposals(courseDTO.getName())).withRel("teamProposals");
-        Link assignmentsLink = linkTo(methodOn(CourseController.class).assignments(courseDTO.getName())).withRel("assignments");
-        Link vmModelLink = linkTo(methodOn(CourseController.class).vmModel(courseDTO.getName())).withRel("vmModel");
-        Link professorsLink = linkTo(methodOn(CourseController.class).professors(courseDTO.getName())).withRel("professors");
+        Link selfLink = LinkTemplates.link(CourseController.class, courseDTO.getName()).withSelfRel();
+        Link enrolledLink = LinkTemplates.link(CourseController.class, "enrolledStudents", courseDTO.getName()).withRel("enrolled");
+        Link teamsLink = LinkTemplates.link(CourseController.class, "teams", courseDTO.getName()).withRel("teams");
+        Link teamProposalsLink = LinkTemplates.link(CourseController.class, "teamProposals", courseDTO.getName()).withRel("teamProposals");
+        Link assignmentsLink = LinkTemplates.link(CourseController.class, "assignments", courseDTO.getName()).withRel("assignments");
+        Link vmModelLink = LinkTemplates.link(CourseController.class, "vmModel", courseDTO.getName()).withRel("vmModel");
+        Link professorsLink = LinkTemplates.link(CourseController.class, "professors", courseDTO.getName()).withRel("professors");
 
         //add links to DTO
         courseDTO.add(
@@ -48,10 +49,13 @@ public class ModelHelper {
     }
 
     public static VmModelDTO enrich(VmModelDTO vmModelDTO) {
-        Link selfLink = linkTo(methodOn(VmController.class).vmModel(vmModelDTO.getId())).withSelfRel();
-        Link course = linkTo(methodOn(VmController.class).course(vmModelDTO.getId())).withRel("course");
-        Link professor = linkTo(methodOn(VmController.class).professor(vmModelDTO.getId())).withRel("professor");
-        Link vms = linkTo(methodOn(VmController.class).vms(vmModelDTO.getId())).withRel("vms");
+        if(LinkTemplates.isCompact())
+            return vmModelDTO;
+
+        Link selfLink = LinkTemplates.link(VmController.class, "vmModel", vmModelDTO.getId()).withSelfRel();
+        Link course = LinkTemplates.link(VmController.class, "course", vmModelDTO.getId()).withRel("course");
+        Link professor = LinkTemplates.link(VmController.class, "professor", vmModelDTO.getId()).withRel("professor");
+        Link vms = LinkTemplates.link(VmController.class, "vms", vmModelDTO.getId()).withRel("vms");
 
         vmModelDTO.add(
                 selfLink,
@@ -63,14 +67,16 @@ public class ModelHelper {
     }
 
     public static VmDTO enrich(VmDTO vmDTO) {
+        vmDTO.setContent(VM_CONTENT_SERVER_URL + vmDTO.getContent() + "." + VM_CONTENT_FORMAT);
 
-        Link selfLink = linkTo(methodOn(VmController.class).getOne(vmDTO.getId())).withSelfRel();
-        Link creator = linkTo(methodOn(VmController.class).creator(vmDTO.getId())).withRel("creator");
-        Link owners = linkTo(methodOn(VmController.class).owners(vmDTO.getId())).withRel("owners");
-        Link team = linkTo(methodOn(VmController.class).team(vmDTO.getId())).withRel("team");
-        Link vmModel = linkTo(methodOn(VmController.class).vmModelByVmId(vmDTO.getId())).withRel("vmModel");
+        if(LinkTemplates.isCompact())
+            return vmDTO;
 
-        vmDTO.setContent(VM_CONTENT_SERVER_URL + vmDTO.getContent() + "." + VM_CONTENT_FORMAT);
+        Link selfLink = LinkTemplates.link(VmController.class, "getOne", vmDTO.getId()).withSelfRel();
+        Link creator = LinkTemplates.link(VmController.class, "creator", vmDTO.getId()).withRel("creator");
+        Link owners = LinkTemplates.link(VmController.class, "owners", vmDTO.getId()).withRel("owners");
+        Link team = LinkTemplates.link(VmController.class, "team", vmDTO.getId()).withRel("team");
+        Link vmModel = LinkTemplates.link(VmController.class, "vmModelByVmId", vmDTO.getId()).withRel("vmModel");
 
         vmDTO.add(
                 selfLink,
@@ -84,10 +90,13 @@ public class ModelHelper {
     }
 
     public static TeamDTO enrich(TeamDTO teamDTO) {
-        Link selfLink = linkTo(TeamController.class).slash(teamDTO.getId()).withSelfRel();
-        Link course = linkTo(methodOn(TeamController.class).course(teamDTO.getId())).withRel("course");
-        Link members = linkTo(methodOn(TeamController.class).members(teamDTO.getId())).withRel("members");
-        Link vms = linkTo(methodOn(TeamController.class).vmsForTeam(teamDTO.getId())).withRel("vms");
+        if(LinkTemplates.isCompact())
+            return teamDTO;
+
+        Link selfLink = LinkTemplates.link(TeamController.class, teamDTO.getId()).withSelfRel();
+        Link course = LinkTemplates.link(TeamController.class, "course", teamDTO.getId()).withRel("course");
+        Link members = LinkTemplates.link(TeamController.class, "members", teamDTO.getId()).withRel("members");
+        Link vms = LinkTemplates.link(TeamController.class, "vmsForTeam", teamDTO.getId()).withRel("vms");
 
         teamDTO.add(
                 selfLink,
@@ -100,9 +109,12 @@ public class ModelHelper {
     }
 
     public static TeamProposalDTO enrich(TeamProposalDTO teamProposalDTO) {
-        Link selfLink = linkTo(methodOn(TeamController.class).getOneProposal(teamProposalDTO.getId())).withSelfRel();
-        Link course = linkTo(methodOn(TeamController.class).teamProposalCourse(teamProposalDTO.getId())).withRel("course");
-        Link members = linkTo(methodOn(TeamController.class).teamProposalMembers(teamProposalDTO.getId())).withRel("members");
+        if(LinkTemplates.isCompact())
+            return teamProposalDTO;
+
+        Link selfLink = LinkTemplates.link(TeamController.class, "getOneProposal", teamProposalDTO.getId()).withSelfRel();
+        Link course = LinkTemplates.link(TeamController.class, "teamProposalCourse", teamProposalDTO.getId()).withRel("course");
+        Link members = LinkTemplates.link(TeamController.class, "teamProposalMembers", teamProposalDTO.getId()).withRel("members");
 
         teamProposalDTO.add(
                 selfLink,
@@ -114,16 +126,23 @@ public class ModelHelper {
     }
 
     public static VersionDTO enrich(VersionDTO versionDTO) {
-        Link selfLink = linkTo(methodOn(LabController.class).version(versionDTO.getId())).withSelfRel();
-        Link report = linkTo(methodOn(LabController.class).reportForVersion(versionDTO.getId())).withRel("reports");
-
-
         String imageCode = versionDTO.getContent();
-        versionDTO.setContent(VERSION_CONTENT_SERVER_URL + imageCode + "." + VERSION_CONTENT_FORMAT);
-        if(versionDTO.isRevised())
-            versionDTO.setReview(REVIEW_IMAGE_SERVER_URL + imageCode + "." + REVIEW_IMAGE_FORMAT);
+        if(versionDTO.getContentKey() != null)
+            versionDTO.setContent(blobUrl(versionDTO.getContentKey()));
         else
+            versionDTO.setContent(VERSION_CONTENT_SERVER_URL + imageCode + "." + VERSION_CONTENT_FORMAT);
+        if(!versionDTO.isRevised())
             versionDTO.setReview(null);
+        else if(versionDTO.getReviewKey() != null)
+            versionDTO.setReview(blobUrl(versionDTO.getReviewKey()));
+        else
+            versionDTO.setReview(REVIEW_IMAGE_SERVER_URL + imageCode + "." + REVIEW_IMAGE_FORMAT);
+
+        if(LinkTemplates.isCompact())
+            return versionDTO;
+
+        Link selfLink = LinkTemplates.link(LabController.class, "version", versionDTO.getId()).withSelfRel();
+        Link report = LinkTemplates.link(LabController.class, "reportForVersion", versionDTO.getId()).withRel("reports");
 
         versionDTO.add(
                 selfLink,
@@ -134,10 +153,13 @@ public class ModelHelper {
     }
 
     public static ReportDTO enrich(ReportDTO reportDTO) {
-        Link selfLink = linkTo(methodOn(LabController.class).report(reportDTO.getId())).withSelfRel();
-        Link versions = linkTo(methodOn(LabController.class).versionsForReport(reportDTO.getId())).withRel("versions");
-        Link assignment = linkTo(methodOn(LabController.class).assignmentForReport(reportDTO.getId())).withRel("assignment");
-        Link owner = linkTo(methodOn(LabController.class).reportOwner(reportDTO.getId())).withRel("owner");
+        if(LinkTemplates.isCompact())
+            return reportDTO;
+
+        Link selfLink = LinkTemplates.link(LabController.class, "report", reportDTO.getId()).withSelfRel();
+        Link versions = LinkTemplates.link(LabController.class, "versionsForReport", reportDTO.getId()).withRel("versions");
+        Link assignment = LinkTemplates.link(LabController.class, "assignmentForReport", reportDTO.getId()).withRel("assignment");
+        Link owner = LinkTemplates.link(LabController.class, "reportOwner", reportDTO.getId()).withRel("owner");
 
         reportDTO.add(
                 selfLink,
@@ -150,10 +172,13 @@ public class ModelHelper {
     }
 
     public static AssignmentDTO enrich(AssignmentDTO assignmentDTO) {
-        Link selfLink = linkTo(methodOn(LabController.class).assignment(assignmentDTO.getId())).withSelfRel();
-        Link reports = linkTo(methodOn(LabController.class).reportsForAssignment(assignmentDTO.getId())).withRel("reports");
-        Link professor = linkTo(methodOn(LabController.class).professorForAssignment(assignmentDTO.getId())).withRel("professor");
-        Link course = linkTo(methodOn(LabController.class).courseForAssignment(assignmentDTO.getId())).withRel("course");
+        if(LinkTemplates.isCompact())
+            return assignmentDTO;
+
+        Link selfLink = LinkTemplates.link(LabController.class, "assignment", assignmentDTO.getId()).withSelfRel();
+        Link reports = LinkTemplates.link(LabController.class, "reportsForAssignment", assignmentDTO.getId()).withRel("reports");
+        Link professor = LinkTemplates.link(LabController.class, "professorForAssignment", assignmentDTO.getId()).withRel("professor");
+        Link course = LinkTemplates.link(LabController.class, "courseForAssignment", assignmentDTO.getId()).withRel("course");
 
         assignmentDTO.add(
                 selfLink,
@@ -166,14 +191,17 @@ public class ModelHelper {
     }
 
     public static StudentDTO enrich(StudentDTO studentDTO) {
-        Link selfLink = linkTo(StudentController.class).slash(studentDTO.getId()).withSelfRel();
-        Link courses = linkTo(methodOn(StudentController.class).courses(studentDTO.getId())).withRel("courses");
-        Link teamProposals = linkTo(methodOn(StudentController.class).teamProposals(studentDTO.getId())).withRel("teamProposals");
-        Link teams = linkTo(methodOn(StudentController.class).teams(studentDTO.getId())).withRel("teams");
-
         studentDTO.setPhoto(USER_PHOTO_SERVER_URL + studentDTO.getPhoto() + "." + USER_PHOTO_FORMAT);
         studentDTO.setPassword("[HIDDEN]");
 
+        if(LinkTemplates.isCompact())
+            return studentDTO;
+
+        Link selfLink = LinkTemplates.link(StudentController.class, studentDTO.getId()).withSelfRel();
+        Link courses = LinkTemplates.link(StudentController.class, "courses", studentDTO.getId()).withRel("courses");
+        Link teamProposals = LinkTemplates.link(StudentController.class, "teamProposals", studentDTO.getId()).withRel("teamProposals");
+        Link teams = LinkTemplates.link(StudentController.class, "teams", studentDTO.getId()).withRel("teams");
+
         studentDTO.add(
                 selfLink,
                 courses,
@@ -185,14 +213,17 @@ public class ModelHelper {
     }
 
     public static ProfessorDTO enrich(ProfessorDTO professorDTO) {
-        Link selfLink = linkTo(ProfessorController.class).slash(professorDTO.getId()).withSelfRel();
-        Link courses = linkTo(methodOn(ProfessorController.class).courses(professorDTO.getId())).withRel("courses");
-        Link vmModels = linkTo(methodOn(ProfessorController.class).vmModels(professorDTO.getId())).withRel("vmModels");
-        Link assignments = linkTo(methodOn(ProfessorController.class).assignments(professorDTO.getId())).withRel("assignments");
-
         professorDTO.setPhoto(USER_PHOTO_SERVER_URL + professorDTO.getPhoto() + "." + USER_PHOTO_FORMAT);
         professorDTO.setPassword("[HIDDEN]");
 
+        if(LinkTemplates.isCompact())
+            return professorDTO;
+
+        Link selfLink = LinkTemplates.link(ProfessorController.class, professorDTO.getId()).withSelfRel();
+        Link courses = LinkTemplates.link(ProfessorController.class, "courses", professorDTO.getId()).withRel("courses");
+        Link vmModels = LinkTemplates.link(ProfessorController.class, "vmModels", professorDTO.getId()).withRel("vmModels");
+        Link assignments = LinkTemplates.link(ProfessorController.class, "assignments", professorDTO.getId()).withRel("assignments");
+
         professorDTO.add(
                 selfLink,
                 courses,
@@ -210,4 +241,7 @@ public class ModelHelper {
         return userDTO;
     }
 
+    private static String blobUrl(String key) {
+        return LinkTemplates.link(BlobController.class, key).getHref();
+    }
 }
@@ -0,0 +1,70 @@
+package it.polito.ai.virtualLabs.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class StreamingHelper {
+
+    public static final int PAGE_SIZE = 500;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public static void checkLimit(Integer limit) {
+        if(limit != null && (limit < 1 || limit > MAX_PAGE_SIZE))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+
+    //walks a list page after page, each page starts after the key of the last element of the previous one
+    public static <T, K> Stream<T> keyset(K after, BiFunction<K, Integer, List<T>> pageLoader, Function<T, K> keyOf) {
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private K lastKey = after;
+            private Iterator<T> page;
+            private boolean lastPage = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if(page == null || !page.hasNext()) {
+                    if(lastPage)
+                        return false;
+                    List<T> items = pageLoader.apply(lastKey, PAGE_SIZE);
+                    lastPage = items.size() < PAGE_SIZE;
+                    if(items.isEmpty())
+                        return false;
+                    lastKey = keyOf.apply(items.get(items.size() - 1));
+                    page = items.iterator();
+                }
+                action.accept(page.next());
+                return true;
+            }
+        }, false);
+    }
+
+    //writes the elements as a json array while they are produced, without collecting them
+    public static void writeJsonArray(HttpServletResponse response, ObjectMapper objectMapper, Stream<?> items) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            Iterator<?> it = items.iterator();
+            while(it.hasNext())
+                objectMapper.writeValue(generator, it.next());
+            generator.writeEndArray();
+        }
+    }
+}
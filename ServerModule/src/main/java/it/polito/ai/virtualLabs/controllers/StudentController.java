@@ -1,7 +1,9 @@
 package it.polito.ai.virtualLabs.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import it.polito.ai.virtualLabs.dtos.*;
 import it.polito.ai.virtualLabs.entities.Report;
+import it.polito.ai.virtualLabs.metrics.SqlBudget;
 import it.polito.ai.virtualLabs.services.LabService;
 import it.polito.ai.virtualLabs.dtos.ReportDTO;
 import it.polito.ai.virtualLabs.dtos.StudentDTO;
@@ -13,11 +15,14 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.swing.text.html.Option;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("API/students")
@@ -29,13 +34,17 @@ public class StudentController {
     VmService vmService;
     @Autowired
     LabService labService;
+    @Autowired
+    ObjectMapper objectMapper;
 
     @GetMapping({"","/"})
-    public List<StudentDTO> all() {
-        List<StudentDTO> students = teamService.getAllStudents();
-        for(StudentDTO s: students)
-            ModelHelper.enrich(s);
-        return students;
+    public void all(@RequestParam(required = false) String after, @RequestParam(required = false) Integer limit,
+                    HttpServletResponse response) throws IOException {
+        StreamingHelper.checkLimit(limit);
+        Stream<StudentDTO> students = limit != null ?
+                teamService.getAllStudents(after, limit).stream() :
+                StreamingHelper.keyset(after, teamService::getAllStudents, StudentDTO::getId);
+        StreamingHelper.writeJsonArray(response, objectMapper, students.map(ModelHelper::enrich));
     }
 
     @GetMapping("/{studentId}")
@@ -47,12 +56,14 @@ public class StudentController {
     }
 
     @GetMapping("/{studentId}/courses")
+    @SqlBudget(3)
     public List<CourseDTO> courses(@PathVariable String studentId) {
         List<CourseDTO> courses = teamService.getCoursesForStudent(studentId);
         return teamService.enrichCourses(courses);
     }
 
     @GetMapping("/{studentId}/teams")
+    @SqlBudget(1)
     public List<TeamDTO> teams(@PathVariable String studentId) {
         List<TeamDTO> teams = teamService.getTeamsForStudent(studentId);
         for(TeamDTO t: teams)
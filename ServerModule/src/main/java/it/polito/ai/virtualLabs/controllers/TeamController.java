@@ -1,6 +1,7 @@
 package it.polito.ai.virtualLabs.controllers;
 
 import it.polito.ai.virtualLabs.dtos.*;
+import it.polito.ai.virtualLabs.metrics.SqlBudget;
 import it.polito.ai.virtualLabs.services.NotificationService;
 import it.polito.ai.virtualLabs.services.TeamService;
 import it.polito.ai.virtualLabs.services.VmService;
@@ -49,6 +50,7 @@ public class TeamController {
     }
 
     @GetMapping("/{teamId}/members")
+    @SqlBudget(1)
     public List<StudentDTO> members(@PathVariable Long teamId) {
         List<StudentDTO> members = teamService.getTeamMembers(teamId);
         for(StudentDTO s : members)
@@ -57,6 +59,7 @@ public class TeamController {
     }
 
     @GetMapping("/{teamId}/vms")
+    @SqlBudget(1)
     public List<VmDTO> vmsForTeam(@PathVariable Long teamId) {
         List<VmDTO> vms = vmService.getTeamVms(teamId);
         for(VmDTO vm : vms)
@@ -1,17 +1,23 @@
 package it.polito.ai.virtualLabs.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import it.polito.ai.virtualLabs.dtos.*;
 import it.polito.ai.virtualLabs.entities.VmModel;
 import it.polito.ai.virtualLabs.services.VmService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("API/vms")
@@ -19,6 +25,8 @@ public class VmController {
 
     @Autowired
     VmService vmService;
+    @Autowired
+    ObjectMapper objectMapper;
 
     @GetMapping("/heartbeat/{vmId}")
     public boolean heartBeat(@PathVariable Long vmId) {
@@ -28,6 +36,13 @@ public class VmController {
         return vm.get().isActive();
     }
 
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam List<Long> vmIds) {
+        if(vmIds.isEmpty())
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one vm id must be provided");
+        return vmService.subscribeToVms(vmIds);
+    }
+
     @GetMapping("/{vmId}")
     public VmDTO getOne(@PathVariable Long vmId) {
         Optional<VmDTO> vm = vmService.getVm(vmId);
@@ -79,11 +94,13 @@ public class VmController {
     }
 
     @GetMapping("/vmModels")
-    public List<VmModelDTO> allVmModels() {
-        return vmService.getAllVmModels()
-                .stream()
-                .map(ModelHelper::enrich)
-                .collect(Collectors.toList());
+    public void allVmModels(@RequestParam(required = false) Long after, @RequestParam(required = false) Integer limit,
+                            HttpServletResponse response) throws IOException {
+        StreamingHelper.checkLimit(limit);
+        Stream<VmModelDTO> vmModels = limit != null ?
+                vmService.getAllVmModels(after, limit).stream() :
+                StreamingHelper.keyset(after, vmService::getAllVmModels, VmModelDTO::getId);
+        StreamingHelper.writeJsonArray(response, objectMapper, vmModels.map(ModelHelper::enrich));
     }
 
     @GetMapping("/vmModels/{vmModelId}")
@@ -0,0 +1,18 @@
+package it.polito.ai.virtualLabs.dtos;
+
+import lombok.Data;
+import org.springframework.hateoas.RepresentationModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class CourseDashboardDTO extends RepresentationModel<CourseDashboardDTO> {
+    CourseDTO course;
+    List<ProfessorDTO> professors = new ArrayList<>();
+    List<StudentDTO> enrolled = new ArrayList<>(); //Only for professors
+    List<TeamDTO> teams = new ArrayList<>();
+    List<TeamProposalDTO> teamProposals = new ArrayList<>();
+    List<AssignmentDTO> assignments = new ArrayList<>();
+    VmModelDTO vmModel;
+}
@@ -12,6 +12,8 @@ public class VersionDTO extends RepresentationModel<VersionDTO> {
     Long id;
     String title;
     String content;
+    String contentKey;
+    String reviewKey;
     boolean revised;
     String review; //On DTO only
     LocalDateTime submissionDate;
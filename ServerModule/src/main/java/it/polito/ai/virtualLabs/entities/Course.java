@@ -1,6 +1,8 @@
 package it.polito.ai.virtualLabs.entities;
 
 import lombok.Data;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import javax.validation.constraints.Max;
@@ -8,8 +10,11 @@ import javax.validation.constraints.Min;
 import java.util.ArrayList;
 import java.util.List;
 
+//read on almost every request and changed a few times per semester, see EntityCacheConfig
 @Data
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Course {
 
     @Id String name;
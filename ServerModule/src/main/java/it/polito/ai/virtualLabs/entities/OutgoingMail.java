@@ -0,0 +1,30 @@
+package it.polito.ai.virtualLabs.entities;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(indexes = @Index(name = "idx_outgoing_mail_next_attempt", columnList = "failed, nextAttempt"))
+public class OutgoingMail {
+
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String address;
+
+    private String subject;
+
+    @Lob
+    private String body;
+
+    private int attempts = 0;
+
+    private LocalDateTime nextAttempt = LocalDateTime.now();
+
+    private boolean failed = false;
+
+    private String lastError;
+}
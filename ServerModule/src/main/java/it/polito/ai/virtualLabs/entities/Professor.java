@@ -1,6 +1,8 @@
 package it.polito.ai.virtualLabs.entities;
 
 import lombok.Data;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.ArrayList;
@@ -10,7 +12,9 @@ import java.util.List;
 @Entity
 public class Professor extends User{
 
+    //holds only the names of the courses, which are cached themselves; professors are not cached
     @ManyToMany(cascade = CascadeType.MERGE)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(name = "professor_course",
             joinColumns = @JoinColumn(name="professor_id"),
             inverseJoinColumns = @JoinColumn(name="course_name")
@@ -17,6 +17,10 @@ public class Report {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    //also incremented by the bulk transitions applied when the assignment expires
+    @javax.persistence.Version
+    private long version;
+
     @Enumerated(EnumType.STRING)
     private ReportStatus status = ReportStatus.NULL;
 
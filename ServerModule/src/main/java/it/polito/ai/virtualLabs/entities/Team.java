@@ -1,8 +1,10 @@
 package it.polito.ai.virtualLabs.entities;
 
 import lombok.Data;
+import org.hibernate.annotations.OptimisticLock;
 
 import javax.persistence.*;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import java.util.ArrayList;
 import java.util.List;
@@ -14,6 +16,9 @@ public class Team {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    @Version
+    private long version;
+
     @NotNull
     private String name;
 
@@ -27,7 +32,9 @@ public class Team {
     @ManyToMany
     private List<Student> students = new ArrayList<>();
 
+    //the resources of the vms are accounted by TeamQuotaLedger, creating a vm must not conflict with the rest of the team
     @OneToMany(mappedBy = "team", cascade = CascadeType.REMOVE, orphanRemoval = true)
+    @OptimisticLock(excluded = true)
     private List<Vm> vms = new ArrayList<>();
 
     public void setCourse(Course c) {
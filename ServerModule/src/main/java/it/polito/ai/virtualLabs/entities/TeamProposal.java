@@ -2,10 +2,13 @@ package it.polito.ai.virtualLabs.entities;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import org.springframework.boot.context.properties.bind.DefaultValue;
 import org.springframework.format.annotation.DateTimeFormat;
 
 import javax.persistence.*;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -14,11 +17,15 @@ import java.util.Map;
 
 @Data
 @Entity
+@Table(indexes = @Index(name = "idx_team_proposal_expiry_date", columnList = "expiryDate"))
 public class TeamProposal {
 
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    @Version
+    private long version;
+
     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime expiryDate;
@@ -33,8 +40,10 @@ public class TeamProposal {
     @NotNull
     private String creatorId;
 
-    @ElementCollection(fetch=FetchType.EAGER)
-    private List<String> tokens = new ArrayList<>();
+    @OneToMany(mappedBy = "teamProposal", cascade = CascadeType.REMOVE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private List<TeamProposalToken> tokens = new ArrayList<>();
 
     @ManyToOne
     @JoinColumn(name = "course_name")
@@ -46,12 +55,9 @@ public class TeamProposal {
     @ManyToMany
     List<Student> students = new ArrayList<>();
 
-    public void addToken(String token) {
+    public void addToken(TeamProposalToken token) {
         tokens.add(token);
-    }
-
-    public void removeToken(String token) {
-        tokens.remove(token);
+        token.setTeamProposal(this);
     }
 
     public void addStudent(Student s) {
@@ -0,0 +1,32 @@
+package it.polito.ai.virtualLabs.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.*;
+
+@Data
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_team_proposal_token_student", columnNames = {"teamProposal_id", "student_id"}))
+public class TeamProposalToken {
+
+    @Id
+    @EqualsAndHashCode.Include
+    private String token;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "teamProposal_id")
+    @ToString.Exclude
+    private TeamProposal teamProposal;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "student_id")
+    @ToString.Exclude
+    private Student student;
+}
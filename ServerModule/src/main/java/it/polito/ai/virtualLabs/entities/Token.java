@@ -13,6 +13,7 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(name="tokenType", discriminatorType = DiscriminatorType.STRING)
+@Table(indexes = @Index(name = "idx_token_expiration", columnList = "expiration"))
 public class Token {
 
     @Id private String token;
@@ -1,9 +1,11 @@
 package it.polito.ai.virtualLabs.entities;
 
+import it.polito.ai.virtualLabs.services.UserTokenListener;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.loader.entity.CascadeEntityJoinWalker;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -23,6 +25,7 @@ import static java.util.stream.Collectors.toList;
 @AllArgsConstructor
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(name="userType", discriminatorType = DiscriminatorType.STRING)
+@EntityListeners(UserTokenListener.class)
 public class User implements UserDetails {
 
     @Id
@@ -43,7 +46,9 @@ public class User implements UserDetails {
     @NotEmpty
     private String surname;
 
+    //loaded for a whole list of users at once, not one select per user
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = 100)
     @Builder.Default
     private List<String> roles = new ArrayList<>();
 
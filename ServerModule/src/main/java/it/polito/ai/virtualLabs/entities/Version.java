@@ -20,6 +20,10 @@ public class Version {
 
     private String content;
 
+    //keys of the images in the blob store, versions stored before it only have content
+    private String contentKey;
+    private String reviewKey;
+
     private boolean revised = false;
 
     private LocalDateTime submissionDate = LocalDateTime.now();
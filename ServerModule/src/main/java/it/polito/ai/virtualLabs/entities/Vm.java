@@ -3,6 +3,7 @@ package it.polito.ai.virtualLabs.entities;
 import lombok.Data;
 
 import javax.persistence.*;
+import javax.persistence.Version;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,6 +14,12 @@ public class Vm {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    //concurrent edits of the same vm fail instead of overwriting each other, the power state is not versioned
+    @Version
+    private long version;
+
+    //written in background by VmStateRegistry, never by entity updates
+    @Column(updatable = false)
     private boolean active;
 
     private int vCPU;
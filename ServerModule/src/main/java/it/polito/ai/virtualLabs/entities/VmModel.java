@@ -1,7 +1,8 @@
 package it.polito.ai.virtualLabs.entities;
 
 import lombok.Data;
-import org.modelmapper.Converters;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -9,6 +10,8 @@ import java.util.*;
 
 @Data
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class VmModel {
 
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,32 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.polito.ai.virtualLabs.services.AssignmentExpiryScheduler;
+import it.polito.ai.virtualLabs.services.VmStateRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ApplicationMetrics implements MeterBinder {
+
+    @Autowired
+    VmStateRegistry vmStateRegistry;
+    @Autowired
+    AssignmentExpiryScheduler assignmentExpiryScheduler;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("vms.active", vmStateRegistry, VmStateRegistry::getActiveVmCount)
+                .description("Vms currently powered on")
+                .register(registry);
+        Gauge.builder("assignments.expiries.scheduled", assignmentExpiryScheduler, AssignmentExpiryScheduler::getScheduledCount)
+                .description("Assignments waiting for their expiry")
+                .register(registry);
+        FunctionCounter.builder("hibernate.statements.prepared", this, m -> SqlStatementCounter.getTotal())
+                .description("SQL statements prepared by hibernate")
+                .register(registry);
+    }
+}
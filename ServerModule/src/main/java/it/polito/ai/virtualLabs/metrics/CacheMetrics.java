@@ -0,0 +1,24 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//hits and misses of the in-memory caches, with the names used by the micrometer cache binders
+public final class CacheMetrics {
+
+    private CacheMetrics() {
+    }
+
+    public static void bind(MeterRegistry registry, String cache, AtomicLong hits, AtomicLong misses) {
+        FunctionCounter.builder("cache.gets", hits, AtomicLong::get)
+                .tag("cache", cache)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, AtomicLong::get)
+                .tag("cache", cache)
+                .tag("result", "miss")
+                .register(registry);
+    }
+}
@@ -0,0 +1,53 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+@Configuration
+@PropertySource("classpath:metrics.properties")
+public class MetricsConfig implements WebMvcConfigurer {
+
+    //latencies published as histograms, so that percentiles can be aggregated across instances
+    private static final Set<String> HISTOGRAMS = new HashSet<>(Arrays.asList(
+            "http.server.requests", "service.method", "security.jwt.filter"));
+
+    @Autowired
+    SqlBudgetInterceptor sqlBudgetInterceptor;
+
+    @Bean
+    static HibernatePropertiesCustomizer sqlStatementCounter() {
+        return properties -> properties.put("hibernate.session_factory.statement_inspector", new SqlStatementCounter());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(sqlBudgetInterceptor);
+    }
+
+    @Bean
+    MeterFilter latencyHistograms() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if(id.getType() != Meter.Type.TIMER || !HISTOGRAMS.contains(id.getName()))
+                    return config;
+                return DistributionStatisticConfig.builder()
+                        .percentilesHistogram(true)
+                        .build()
+                        .merge(config);
+            }
+        };
+    }
+}
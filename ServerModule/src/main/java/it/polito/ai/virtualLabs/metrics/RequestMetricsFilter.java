@@ -0,0 +1,73 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestMetricsFilter.class);
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${metrics.slow-request.millis:500}")
+    private long slowRequestMillis = 500;
+
+    @Value("${metrics.slow-request.statements:50}")
+    private int slowRequestStatements = 50;
+
+    //a statement run this many times by one request is reported as an N+1 pattern
+    @Value("${metrics.repeated-statement.threshold:10}")
+    private int repeatedStatementThreshold = 10;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        SqlStatementCounter.start();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            SqlStatementCounter.Statements statements = SqlStatementCounter.stop();
+            long millis = (System.nanoTime() - start) / 1000000;
+            String uri = uri(request);
+
+            DistributionSummary.builder("http.server.requests.statements")
+                    .description("SQL statements run by a request")
+                    .tag("method", request.getMethod())
+                    .tag("uri", uri)
+                    .register(meterRegistry)
+                    .record(statements.getCount());
+
+            Map.Entry<String, Integer> repeated = statements.getMostRepeated();
+            boolean nPlusOne = repeated != null && repeated.getValue() >= repeatedStatementThreshold;
+            if(millis >= slowRequestMillis || statements.getCount() >= slowRequestStatements || nPlusOne)
+                log.warn("Slow request {} {}: {} ms, {} statements{}", request.getMethod(), uri, millis, statements.getCount(),
+                        nPlusOne ? ", repeated " + repeated.getValue() + " times: " + repeated.getKey() : "");
+        }
+    }
+
+    private static String uri(HttpServletRequest request) {
+        //the mapping pattern, so that every course or student falls in the same series
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return pattern != null ? pattern.toString() : "UNKNOWN";
+    }
+}
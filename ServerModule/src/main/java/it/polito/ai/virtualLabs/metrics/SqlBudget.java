@@ -0,0 +1,13 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//maximum number of SQL statements an endpoint is expected to run, with warm caches
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SqlBudget {
+    int value();
+}
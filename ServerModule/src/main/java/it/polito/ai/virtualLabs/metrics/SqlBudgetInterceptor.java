@@ -0,0 +1,54 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+@Component
+public class SqlBudgetInterceptor extends HandlerInterceptorAdapter {
+
+    //set on every request with a budget, so that tests can assert on it
+    public static final String STATEMENTS_ATTRIBUTE = SqlBudgetInterceptor.class.getName() + ".statements";
+    public static final String BUDGET_ATTRIBUTE = SqlBudgetInterceptor.class.getName() + ".budget";
+
+    private static final Logger log = LoggerFactory.getLogger(SqlBudgetInterceptor.class);
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if(!(handler instanceof HandlerMethod))
+            return;
+        SqlBudget budget = ((HandlerMethod) handler).getMethodAnnotation(SqlBudget.class);
+        SqlStatementCounter.Statements statements = SqlStatementCounter.current();
+        if(budget == null || statements == null)
+            return;
+
+        request.setAttribute(STATEMENTS_ATTRIBUTE, statements.getCount());
+        request.setAttribute(BUDGET_ATTRIBUTE, budget.value());
+        if(statements.getCount() <= budget.value())
+            return;
+
+        String uri = String.valueOf(request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE));
+        Counter.builder("http.server.requests.sql-budget.exceeded")
+                .tag("method", request.getMethod())
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .increment();
+
+        Map.Entry<String, Integer> repeated = statements.getMostRepeated();
+        log.warn("SQL budget exceeded by {} {}: {} statements, budget {}, most repeated ({} times): {}",
+                request.getMethod(), uri, statements.getCount(), budget.value(), repeated.getValue(), repeated.getKey());
+    }
+}
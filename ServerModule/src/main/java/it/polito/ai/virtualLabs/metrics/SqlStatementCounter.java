@@ -0,0 +1,67 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+//counts the statements prepared by hibernate, in total and for the unit of work started on the current thread
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<Statements> current = new ThreadLocal<>();
+    private static final AtomicLong total = new AtomicLong();
+
+    public static final class Statements {
+        private int count;
+        //sql -> times it was run, statements are parametrized so an N+1 loop repeats the same sql
+        private final Map<String, Integer> counts = new HashMap<>();
+
+        public int getCount() {
+            return count;
+        }
+
+        public Map<String, Integer> getCounts() {
+            return Collections.unmodifiableMap(counts);
+        }
+
+        public Map.Entry<String, Integer> getMostRepeated() {
+            return counts.entrySet()
+                    .stream()
+                    .max(Map.Entry.comparingByValue())
+                    .orElse(null);
+        }
+    }
+
+    public static Statements start() {
+        Statements statements = new Statements();
+        current.set(statements);
+        return statements;
+    }
+
+    public static Statements stop() {
+        Statements statements = current.get();
+        current.remove();
+        return statements;
+    }
+
+    public static Statements current() {
+        return current.get();
+    }
+
+    public static long getTotal() {
+        return total.get();
+    }
+
+    @Override
+    public String inspect(String sql) {
+        total.incrementAndGet();
+        Statements statements = current.get();
+        if(statements != null) {
+            statements.count++;
+            statements.counts.merge(sql, 1, Integer::sum);
+        }
+        return sql;
+    }
+}
@@ -1,10 +1,25 @@
 package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.Assignment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 @Repository
 public interface AssignmentRepository extends JpaRepository<Assignment, Long> {
 
+    @Query("SELECT a FROM Assignment a WHERE a.id > :afterId ORDER BY a.id")
+    List<Assignment> findAllAfter(Long afterId, Pageable pageable);
+
+    @Query("SELECT a.id AS id, a.expiryDate AS expiryDate FROM Assignment a WHERE a.expiryDate > :now")
+    List<UpcomingExpiry> getUpcomingExpiries(LocalDateTime now);
+
+    interface UpcomingExpiry {
+        Long getId();
+        LocalDateTime getExpiryDate();
+    }
 }
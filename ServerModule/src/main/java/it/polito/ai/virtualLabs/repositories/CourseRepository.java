@@ -2,17 +2,133 @@ package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.Course;
 import it.polito.ai.virtualLabs.entities.Student;
+import it.polito.ai.virtualLabs.entities.TeamProposal;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface CourseRepository extends JpaRepository<Course, String> {
+    //the course list is served from the query cache until a course changes
+    @Override
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+    List<Course> findAll();
+
+    //single select loading the course with the collection the caller walks
+    @EntityGraph(attributePaths = "students")
+    Optional<Course> findWithStudentsByName(String courseName);
+
+    @EntityGraph(attributePaths = "professors")
+    Optional<Course> findWithProfessorsByName(String courseName);
+
+    @EntityGraph(attributePaths = "teams")
+    Optional<Course> findWithTeamsByName(String courseName);
+
+    @EntityGraph(attributePaths = "teamProposals")
+    Optional<Course> findWithTeamProposalsByName(String courseName);
+
+    @EntityGraph(attributePaths = "assignments")
+    Optional<Course> findWithAssignmentsByName(String courseName);
+
     @Query("SELECT s FROM Student s INNER JOIN s.teams t INNER JOIN t.course c WHERE c.name=:courseName")
     List<Student> getStudentsInTeams(String courseName);
 
     @Query("SELECT s FROM Course c INNER JOIN c.students s WHERE c.name=:courseName AND s.id NOT IN (SELECT s.id FROM Student s INNER JOIN s.teams t INNER JOIN t.course c WHERE c.name=:courseName)")
     List<Student> getStudentsNotInTeams(String courseName);
+
+    @Query("SELECT s.id AS id, s.username AS username FROM Course c INNER JOIN c.students s WHERE c.name=:courseName")
+    List<StudentIdAndUsername> getStudentIdsAndUsernames(String courseName);
+
+    @Query("SELECT s.id FROM Course c INNER JOIN c.students s WHERE c.name=:courseName")
+    List<String> getEnrolledStudentIds(String courseName);
+
+    //projections of the course dashboard, one statement for each section
+    @Query("SELECT c.name AS name, c.acronym AS acronym, c.minTeamSize AS minTeamSize, c.maxTeamSize AS maxTeamSize, c.enabled AS enabled " +
+            "FROM Course c WHERE c.name=:courseName")
+    Optional<DashboardCourse> getDashboardCourse(String courseName);
+
+    @Query("SELECT p.id AS id, p.username AS username, p.name AS name, p.surname AS surname, p.photo AS photo " +
+            "FROM Course c INNER JOIN c.professors p WHERE c.name=:courseName")
+    List<DashboardUser> getDashboardProfessors(String courseName);
+
+    @Query("SELECT s.id AS id, s.username AS username, s.name AS name, s.surname AS surname, s.photo AS photo " +
+            "FROM Course c INNER JOIN c.students s WHERE c.name=:courseName")
+    List<DashboardUser> getDashboardStudents(String courseName);
+
+    @Query("SELECT t.id AS id, t.name AS name FROM Team t WHERE t.course.name=:courseName")
+    List<DashboardTeam> getDashboardTeams(String courseName);
+
+    @Query("SELECT tp.id AS id, tp.expiryDate AS expiryDate, tp.teamName AS teamName, tp.status AS status, " +
+            "tp.statusDesc AS statusDesc, tp.creatorId AS creatorId FROM TeamProposal tp " +
+            "WHERE tp.course.name=:courseName AND tp.expiryDate >= :expiredBefore")
+    List<DashboardTeamProposal> getDashboardTeamProposals(String courseName, LocalDateTime expiredBefore);
+
+    @Query("SELECT a.id AS id, a.name AS name, a.releaseDate AS releaseDate, a.expiryDate AS expiryDate, a.content AS content " +
+            "FROM Assignment a WHERE a.course.name=:courseName")
+    List<DashboardAssignment> getDashboardAssignments(String courseName);
+
+    @Query("SELECT m.id AS id, m.name AS name, m.os AS os, m.maxVCPU AS maxVCPU, m.maxDisk AS maxDisk, m.maxRAM AS maxRAM, " +
+            "m.maxTotVm AS maxTotVm, m.maxActiveVm AS maxActiveVm FROM VmModel m WHERE m.course.name=:courseName")
+    Optional<DashboardVmModel> getDashboardVmModel(String courseName);
+
+    interface StudentIdAndUsername {
+        String getId();
+        String getUsername();
+    }
+
+    interface DashboardCourse {
+        String getName();
+        String getAcronym();
+        int getMinTeamSize();
+        int getMaxTeamSize();
+        boolean isEnabled();
+    }
+
+    interface DashboardUser {
+        String getId();
+        String getUsername();
+        String getName();
+        String getSurname();
+        String getPhoto();
+    }
+
+    interface DashboardTeam {
+        Long getId();
+        String getName();
+    }
+
+    interface DashboardTeamProposal {
+        Long getId();
+        LocalDateTime getExpiryDate();
+        String getTeamName();
+        TeamProposal.TeamProposalStatus getStatus();
+        String getStatusDesc();
+        String getCreatorId();
+    }
+
+    interface DashboardAssignment {
+        Long getId();
+        String getName();
+        LocalDateTime getReleaseDate();
+        LocalDateTime getExpiryDate();
+        String getContent();
+    }
+
+    interface DashboardVmModel {
+        Long getId();
+        String getName();
+        String getOs();
+        int getMaxVCPU();
+        int getMaxDisk();
+        int getMaxRAM();
+        int getMaxTotVm();
+        int getMaxActiveVm();
+    }
 }
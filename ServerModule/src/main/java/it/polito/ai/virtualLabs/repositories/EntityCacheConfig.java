@@ -0,0 +1,70 @@
+package it.polito.ai.virtualLabs.repositories;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.spi.RegionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class EntityCacheConfig {
+
+    private static final String ENTITIES = "it.polito.ai.virtualLabs.entities.";
+
+    //regions of the entities and collections annotated with @Cache
+    //users are not cached: the hierarchy can only be cached at its root, which would keep students and password hashes too
+    private static final List<String> REGIONS = Arrays.asList(
+            ENTITIES + "Course",
+            ENTITIES + "VmModel",
+            ENTITIES + "Professor.courses",
+            RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME);
+
+    @Bean(destroyMethod = "close")
+    static CacheManager entityCacheManager(@Value("${entity-cache.max-size:10000}") long maxSize,
+                                           @Value("${entity-cache.time-to-live-minutes:60}") long timeToLiveMinutes) {
+        //a manager of its own, so that application contexts living in the same jvm never share entries
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create("virtualLabs:entities:" + UUID.randomUUID()), EntityCacheConfig.class.getClassLoader());
+
+        for(String region : REGIONS) {
+            CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+            configuration.setStoreByValue(false);
+            configuration.setMaximumSize(OptionalLong.of(maxSize));
+            //hibernate keeps the regions up to date, the time to live only bounds what other instances may change
+            configuration.setExpireAfterWrite(OptionalLong.of(TimeUnit.MINUTES.toNanos(timeToLiveMinutes)));
+            cacheManager.createCache(region, configuration);
+        }
+
+        //the update timestamps must outlive the query results they validate: never evicted
+        CaffeineConfiguration<Object, Object> timestamps = new CaffeineConfiguration<>();
+        timestamps.setStoreByValue(false);
+        cacheManager.createCache(RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME, timestamps);
+        return cacheManager;
+    }
+
+    @Bean
+    static HibernatePropertiesCustomizer entityCache(CacheManager entityCacheManager) {
+        return properties -> {
+            properties.put("hibernate.cache.use_second_level_cache", true);
+            properties.put("hibernate.cache.use_query_cache", true);
+            properties.put("hibernate.cache.region.factory_class", "jcache");
+            properties.put("hibernate.javax.cache.cache_manager", entityCacheManager);
+            //a region without an eviction policy is a configuration error
+            properties.put("hibernate.javax.cache.missing_cache_strategy", "fail");
+            properties.put("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE");
+            //hits, misses and puts of every region, published by the actuator as hibernate.second.level.cache.*
+            properties.putIfAbsent("hibernate.generate_statistics", true);
+        };
+    }
+}
@@ -0,0 +1,31 @@
+package it.polito.ai.virtualLabs.repositories;
+
+import it.polito.ai.virtualLabs.entities.OutgoingMail;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutgoingMailRepository extends JpaRepository<OutgoingMail, Long> {
+
+    @Query("SELECT m FROM OutgoingMail m WHERE m.failed = false AND m.nextAttempt <= :now ORDER BY m.nextAttempt")
+    List<OutgoingMail> findDue(LocalDateTime now, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE OutgoingMail m SET m.nextAttempt = :until WHERE m.id IN :ids")
+    int lease(Collection<Long> ids, LocalDateTime until);
+
+    @Modifying
+    @Query("DELETE FROM OutgoingMail m WHERE m.id IN :ids")
+    int deleteSent(Collection<Long> ids);
+
+    long countByFailedFalse();
+
+    long countByFailedTrue();
+}
@@ -1,14 +1,56 @@
 package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.Report;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ReportRepository extends JpaRepository<Report, Long> {
 
     Optional<Report> findReportByAssignmentIdAndOwnerId(Long assignmentId, String studentId);
+
+    @EntityGraph(attributePaths = "versions")
+    Optional<Report> findWithVersionsById(Long reportId);
+
+    @Query("SELECT s.id AS ownerId, c.name AS courseName FROM Report r INNER JOIN r.owner s INNER JOIN r.assignment a INNER JOIN a.course c " +
+            "WHERE r.id=:reportId")
+    Optional<OwnerIdAndCourseName> getOwnerIdAndCourseName(Long reportId);
+
+    //transitions applied when an assignment expires: reports without versions get 0, the others are submitted
+    @Modifying
+    @Query("UPDATE Report r SET r.version = r.version + 1, r.status = :graded, r.statusDate = :now, r.grade = 0 " +
+            "WHERE r.assignment.id IN (SELECT a.id FROM Assignment a WHERE a.id = :assignmentId AND a.expiryDate <= :now) " +
+            "AND r.versions IS EMPTY AND r.status <> :graded")
+    int gradeReportsWithoutVersions(Long assignmentId, LocalDateTime now, Report.ReportStatus graded);
+
+    @Modifying
+    @Query("UPDATE Report r SET r.version = r.version + 1, r.status = :submitted, r.statusDate = :now " +
+            "WHERE r.assignment.id IN (SELECT a.id FROM Assignment a WHERE a.id = :assignmentId AND a.expiryDate <= :now) " +
+            "AND r.versions IS NOT EMPTY AND r.status IN :pending")
+    int submitPendingReports(Long assignmentId, LocalDateTime now, Report.ReportStatus submitted, Collection<Report.ReportStatus> pending);
+
+    @Modifying
+    @Query("UPDATE Report r SET r.version = r.version + 1, r.status = :graded, r.statusDate = :now, r.grade = 0 " +
+            "WHERE r.assignment.id IN (SELECT a.id FROM Assignment a WHERE a.expiryDate <= :now) " +
+            "AND r.versions IS EMPTY AND r.status <> :graded")
+    int gradeExpiredReportsWithoutVersions(LocalDateTime now, Report.ReportStatus graded);
+
+    @Modifying
+    @Query("UPDATE Report r SET r.version = r.version + 1, r.status = :submitted, r.statusDate = :now " +
+            "WHERE r.assignment.id IN (SELECT a.id FROM Assignment a WHERE a.expiryDate <= :now) " +
+            "AND r.versions IS NOT EMPTY AND r.status IN :pending")
+    int submitExpiredPendingReports(LocalDateTime now, Report.ReportStatus submitted, Collection<Report.ReportStatus> pending);
+
+    interface OwnerIdAndCourseName {
+        String getOwnerId();
+        String getCourseName();
+    }
 }
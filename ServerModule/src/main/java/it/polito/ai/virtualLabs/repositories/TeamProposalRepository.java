@@ -1,9 +1,17 @@
 package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.TeamProposal;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,4 +21,23 @@ public interface TeamProposalRepository extends JpaRepository<TeamProposal, Long
     List<TeamProposal> findAllByCourseNameAndStatus(String courseName, TeamProposal.TeamProposalStatus status);
     List<TeamProposal> findAllByCourseNameAndCreatorIdAndStatus(String courseName, String creatorId, TeamProposal.TeamProposalStatus status);
 
+    @EntityGraph(attributePaths = "students")
+    Optional<TeamProposal> findWithStudentsById(Long teamProposalId);
+
+    //the version is incremented at commit even if the proposal is left unchanged, so concurrent acceptances conflict
+    @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+    Optional<TeamProposal> findAndIncrementVersionById(Long teamProposalId);
+
+    @Query("SELECT tp.id FROM TeamProposal tp INNER JOIN tp.students s WHERE tp.course.name = :courseName AND tp.status = :status AND s.id = :studentId")
+    List<Long> getIdsByCourseNameAndStatusAndStudentId(String courseName, TeamProposal.TeamProposalStatus status, String studentId);
+
+    @Query("SELECT tp.id FROM TeamProposal tp WHERE tp.expiryDate < :expiredBefore ORDER BY tp.expiryDate")
+    List<Long> getExpiredIds(LocalDateTime expiredBefore, Pageable pageable);
+
+    @EntityGraph(attributePaths = "students")
+    List<TeamProposal> findWithStudentsByIdIn(Collection<Long> teamProposalIds);
+
+    @Modifying
+    @Query("DELETE FROM TeamProposal tp WHERE tp.id IN :teamProposalIds")
+    int deleteByIdIn(Collection<Long> teamProposalIds);
 }
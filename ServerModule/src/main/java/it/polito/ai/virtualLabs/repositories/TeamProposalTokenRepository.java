@@ -0,0 +1,53 @@
+package it.polito.ai.virtualLabs.repositories;
+
+import it.polito.ai.virtualLabs.entities.Student;
+import it.polito.ai.virtualLabs.entities.TeamProposal;
+import it.polito.ai.virtualLabs.entities.TeamProposalToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface TeamProposalTokenRepository extends JpaRepository<TeamProposalToken, String> {
+
+    @Query("SELECT t.token FROM TeamProposalToken t WHERE t.teamProposal.id = :teamProposalId AND t.student.id = :studentId")
+    Optional<String> getToken(Long teamProposalId, String studentId);
+
+    @Query("SELECT s FROM TeamProposalToken t INNER JOIN t.student s WHERE t.token = :token")
+    Optional<Student> getStudentByToken(String token);
+
+    @Query("SELECT CASE WHEN COUNT(t)>0 THEN TRUE ELSE FALSE END FROM TeamProposalToken t WHERE t.token = :token AND t.teamProposal.id = :teamProposalId")
+    boolean existsByTokenAndTeamProposalId(String token, Long teamProposalId);
+
+    @Query("SELECT CASE WHEN COUNT(t)>0 THEN TRUE ELSE FALSE END FROM TeamProposalToken t WHERE t.teamProposal.id = :teamProposalId AND t.student.id = :studentId")
+    boolean existsByTeamProposalIdAndStudentId(Long teamProposalId, String studentId);
+
+    @Query("SELECT CASE WHEN COUNT(t)>0 THEN TRUE ELSE FALSE END FROM TeamProposalToken t INNER JOIN t.teamProposal tp " +
+            "WHERE t.student.id = :studentId AND tp.course.name = :courseName AND tp.status = :status")
+    boolean existsByStudentIdAndCourseNameAndStatus(String studentId, String courseName, TeamProposal.TeamProposalStatus status);
+
+    @Query("SELECT tp.id AS teamProposalId, t.token AS token FROM TeamProposalToken t INNER JOIN t.teamProposal tp " +
+            "WHERE t.student.id = :studentId AND tp.course.name = :courseName AND tp.status = :status")
+    List<ProposalToken> getProposalTokensForStudent(String studentId, String courseName, TeamProposal.TeamProposalStatus status);
+
+    @Query("SELECT COUNT(t) FROM TeamProposalToken t WHERE t.teamProposal.id = :teamProposalId")
+    long countByTeamProposalId(Long teamProposalId);
+
+    @Modifying
+    @Query("DELETE FROM TeamProposalToken t WHERE t.teamProposal.id = :teamProposalId")
+    int deleteByTeamProposalId(Long teamProposalId);
+
+    @Modifying
+    @Query("DELETE FROM TeamProposalToken t WHERE t.teamProposal.id IN :teamProposalIds")
+    int deleteByTeamProposalIdIn(Collection<Long> teamProposalIds);
+
+    interface ProposalToken {
+        Long getTeamProposalId();
+        String getToken();
+    }
+}
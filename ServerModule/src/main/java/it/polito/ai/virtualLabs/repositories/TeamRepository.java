@@ -2,9 +2,12 @@ package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.Student;
 import it.polito.ai.virtualLabs.entities.Team;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,4 +15,16 @@ public interface TeamRepository extends JpaRepository<Team, Long> {
     boolean existsByNameAndCourseName(String teamName, String courseName);
     Optional<Team> findByNameAndCourseName(String teamName, String courseName);
     Optional<Team> findByStudentsContainsAndCourseName(Student student, String courseName);
+
+    @EntityGraph(attributePaths = "students")
+    Optional<Team> findWithStudentsById(Long teamId);
+
+    @EntityGraph(attributePaths = "vms")
+    Optional<Team> findWithVmsById(Long teamId);
+
+    @Query("SELECT c.name FROM Team t INNER JOIN t.course c WHERE t.id=:teamId")
+    Optional<String> getCourseName(Long teamId);
+
+    @Query("SELECT t FROM Team t WHERE t.course.name=:courseName AND t.students IS EMPTY")
+    List<Team> findEmptyTeamsByCourseName(String courseName);
 }
@@ -4,10 +4,15 @@ import it.polito.ai.virtualLabs.entities.RefreshToken;
 import it.polito.ai.virtualLabs.entities.RegistrationToken;
 import it.polito.ai.virtualLabs.entities.Token;
 import it.polito.ai.virtualLabs.entities.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -30,4 +35,21 @@ public interface TokenRepository extends JpaRepository<Token, String> {
 
     @Query("SELECT rt FROM RefreshToken rt WHERE rt.user.id = :id")
     Optional<RefreshToken> findRefreshTokenByUserId(String id);
+
+    @Query("SELECT u.username AS username, u.registered AS registered, rt.expiration AS expiration " +
+            "FROM RefreshToken rt INNER JOIN rt.user u WHERE rt.token = :token")
+    Optional<RefreshTokenOwner> getRefreshTokenOwner(String token);
+
+    @Query("SELECT t.token FROM Token t WHERE t.expiration < :expiredBefore")
+    List<String> getExpiredTokens(LocalDateTime expiredBefore, Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM Token t WHERE t.token IN :tokens")
+    int deleteByTokenIn(Collection<String> tokens);
+
+    interface RefreshTokenOwner {
+        String getUsername();
+        boolean isRegistered();
+        LocalDateTime getExpiration();
+    }
 }
@@ -3,10 +3,13 @@ package it.polito.ai.virtualLabs.repositories;
 import it.polito.ai.virtualLabs.entities.Professor;
 import it.polito.ai.virtualLabs.entities.Student;
 import it.polito.ai.virtualLabs.entities.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +24,9 @@ public interface UserRepository extends JpaRepository<User, String> {
     @Query("SELECT s FROM Student s WHERE s.registered = true")
     List<Student> findAllStudents();
 
+    @Query("SELECT s FROM Student s WHERE s.registered = true AND s.id > :afterId ORDER BY s.id")
+    List<Student> findAllStudents(String afterId, Pageable pageable);
+
     @Query("SELECT p FROM Professor p WHERE p.registered = true")
     List<Professor> findAllProfessors();
 
@@ -33,6 +39,22 @@ public interface UserRepository extends JpaRepository<User, String> {
     @Query("SELECT p FROM Professor p WHERE p.id = :professorId")
     Optional<Professor> findProfessorById(String professorId);
 
+    @EntityGraph(attributePaths = "courses")
+    @Query("SELECT s FROM Student s WHERE s.id = :studentId")
+    Optional<Student> findStudentWithCoursesById(String studentId);
+
+    @EntityGraph(attributePaths = "teams")
+    @Query("SELECT s FROM Student s WHERE s.id = :studentId")
+    Optional<Student> findStudentWithTeamsById(String studentId);
+
+    @EntityGraph(attributePaths = "teamProposals")
+    @Query("SELECT s FROM Student s WHERE s.id = :studentId")
+    Optional<Student> findStudentWithTeamProposalsById(String studentId);
+
+    @EntityGraph(attributePaths = "courses")
+    @Query("SELECT p FROM Professor p WHERE p.id = :professorId")
+    Optional<Professor> findProfessorWithCoursesById(String professorId);
+
     @Query("SELECT p FROM Professor p WHERE p.username = :email")
     Optional<Professor> findProfessorByUsername(String email);
 
@@ -62,4 +84,30 @@ public interface UserRepository extends JpaRepository<User, String> {
 
     @Query("SELECT s FROM Student s WHERE s.registered = true AND s.id NOT IN (SELECT s.id FROM Course c INNER JOIN c.students s WHERE c.name=:courseName)")
     List<Student> getStudentsNotInCourse(String courseName);
+
+    @Query("SELECT s FROM Student s WHERE s.registered = true AND s.id > :afterId AND s.id NOT IN (SELECT s.id FROM Course c INNER JOIN c.students s WHERE c.name=:courseName) ORDER BY s.id")
+    List<Student> getStudentsNotInCourse(String courseName, String afterId, Pageable pageable);
+
+    @Query("SELECT u.id FROM User u WHERE u.username = :username AND u.registered = true")
+    Optional<String> getRegisteredUserId(String username);
+
+    @Query("SELECT c.name FROM Student s INNER JOIN s.courses c WHERE s.id = :studentId")
+    List<String> getStudentCourseNames(String studentId);
+
+    @Query("SELECT c.name FROM Professor p INNER JOIN p.courses c WHERE p.id = :professorId")
+    List<String> getProfessorCourseNames(String professorId);
+
+    @Query("SELECT t.id FROM Student s INNER JOIN s.teams t WHERE s.id = :studentId")
+    List<Long> getStudentTeamIds(String studentId);
+
+    @Query("SELECT s.id AS id, s.registered AS registered FROM Student s WHERE s.id IN :studentIds")
+    List<StudentRegistration> getStudentRegistrations(Collection<String> studentIds);
+
+    @Query("SELECT s FROM Student s WHERE s.id IN :studentIds")
+    List<Student> getStudentsById(Collection<String> studentIds);
+
+    interface StudentRegistration {
+        String getId();
+        boolean isRegistered();
+    }
 }
@@ -2,9 +2,14 @@ package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.Version;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface VersionRepository extends JpaRepository<Version, Long> {
 
+    @Query("SELECT DISTINCT v.report.id FROM Version v WHERE v.contentKey=:key OR v.reviewKey=:key")
+    List<Long> getReportIdsByBlobKey(String key);
 }
@@ -1,13 +1,19 @@
 package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.VmModel;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface VmModelRepository extends JpaRepository<VmModel, Long> {
     boolean existsByCourseName(String courseName);
     Optional<VmModel> findByCourseName(String courseName);
+
+    @Query("SELECT m FROM VmModel m WHERE m.id > :afterId ORDER BY m.id")
+    List<VmModel> findAllAfter(Long afterId, Pageable pageable);
 }
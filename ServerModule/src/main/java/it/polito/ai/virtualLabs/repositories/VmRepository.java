@@ -1,9 +1,13 @@
 package it.polito.ai.virtualLabs.repositories;
 
 import it.polito.ai.virtualLabs.entities.Vm;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,4 +16,40 @@ public interface VmRepository extends JpaRepository<Vm, Long> {
 
     Optional<Vm> findVmByTeamIdAndCreatorIdAndVmModelId(Long teamId, String studentId, Long vmModelId);
     List<Vm> findAllByVmModelId(Long vmModelId);
+
+    @Query("SELECT v FROM Vm v WHERE v.id > :afterId ORDER BY v.id")
+    List<Vm> findAllAfter(Long afterId, Pageable pageable);
+
+    @Query("SELECT v.id AS id, t.id AS teamId, v.active AS active FROM Vm v LEFT JOIN v.team t")
+    List<StoredVmState> findAllStates();
+    @Query("SELECT v.id AS id, t.id AS teamId, v.active AS active FROM Vm v LEFT JOIN v.team t WHERE v.id=:vmId")
+    Optional<StoredVmState> findState(Long vmId);
+    @Query("SELECT SUM(v.vCPU) AS usedVCPU, SUM(v.RAM) AS usedRAM, SUM(v.disk) AS usedDisk, COUNT(v) AS vmCount " +
+            "FROM Vm v WHERE v.team.id=:teamId")
+    Optional<ResourcesUsed> getResourcesUsedByTeam(Long teamId);
+    @Query("SELECT t.id AS teamId, SUM(v.vCPU) AS usedVCPU, SUM(v.RAM) AS usedRAM, SUM(v.disk) AS usedDisk, COUNT(v) AS vmCount " +
+            "FROM Vm v JOIN v.team t GROUP BY t.id")
+    List<ResourcesUsed> getResourcesUsedByTeams();
+    @Query("SELECT t.id FROM Vm v INNER JOIN v.team t WHERE v.id=:vmId")
+    Optional<Long> getTeamId(Long vmId);
+    @Query("SELECT o.id FROM Vm v INNER JOIN v.owners o WHERE v.id=:vmId")
+    List<String> getOwnerIds(Long vmId);
+    @Modifying
+    @Query("UPDATE Vm v SET v.active=:active WHERE v.id IN :vmIds")
+    int updateActive(Collection<Long> vmIds, boolean active);
+
+    interface StoredVmState {
+        Long getId();
+        Long getTeamId();
+        boolean isActive();
+    }
+
+    //the sums are null for a team without vms
+    interface ResourcesUsed {
+        Long getTeamId();
+        Long getUsedVCPU();
+        Long getUsedRAM();
+        Long getUsedDisk();
+        long getVmCount();
+    }
 }
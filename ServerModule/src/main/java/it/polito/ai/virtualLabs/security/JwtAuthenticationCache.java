@@ -0,0 +1,88 @@
+package it.polito.ai.virtualLabs.security;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.polito.ai.virtualLabs.metrics.CacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class JwtAuthenticationCache implements MeterBinder {
+
+    private static final long PURGE_DELAY_MILLIS = 60 * 1000L;
+
+    @Value("${security.jwt.token.cache-size:10000}")
+    private int maxSize = 10000;
+
+    //verified token -> authentication built from it, valid until the token expires
+    private final Map<String, CachedAuthentication> cache = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class CachedAuthentication {
+        private final Authentication authentication;
+        private final long expiresAt;
+
+        private CachedAuthentication(Authentication authentication, long expiresAt) {
+            this.authentication = authentication;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public Authentication get(String token) {
+        CachedAuthentication cached = cache.get(token);
+        if(cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if(cached.expiresAt <= System.currentTimeMillis()) {
+            cache.remove(token, cached);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.authentication;
+    }
+
+    public void put(String token, Authentication authentication, long expiresAt) {
+        if(cache.size() >= maxSize) {
+            purge();
+
+            //still full: make room dropping arbitrary entries, they will be verified again
+            Iterator<String> it = cache.keySet().iterator();
+            while(cache.size() >= maxSize && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        cache.put(token, new CachedAuthentication(authentication, expiresAt));
+    }
+
+    @Scheduled(fixedDelay = PURGE_DELAY_MILLIS)
+    public void purge() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(cached -> cached.expiresAt <= now);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CacheMetrics.bind(registry, "jwt.authentications", hits, misses);
+        Gauge.builder("cache.size", this, JwtAuthenticationCache::size)
+                .tag("cache", "jwt.authentications")
+                .register(registry);
+    }
+}
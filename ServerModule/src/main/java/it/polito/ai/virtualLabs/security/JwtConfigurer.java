@@ -1,5 +1,6 @@
 package it.polito.ai.virtualLabs.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.security.config.annotation.SecurityConfigurerAdapter;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.DefaultSecurityFilterChain;
@@ -8,14 +9,16 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 class JwtConfigurer extends SecurityConfigurerAdapter<DefaultSecurityFilterChain, HttpSecurity> {
 
     private JwtTokenProvider jwtTokenProvider;
+    private MeterRegistry meterRegistry;
 
-    public JwtConfigurer(JwtTokenProvider jwtTokenProvider) {
+    public JwtConfigurer(JwtTokenProvider jwtTokenProvider, MeterRegistry meterRegistry) {
         this.jwtTokenProvider = jwtTokenProvider;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
     public void configure(HttpSecurity http) throws Exception {
-        JwtTokenFilter customFilter = new JwtTokenFilter(jwtTokenProvider);
+        JwtTokenFilter customFilter = new JwtTokenFilter(jwtTokenProvider, meterRegistry);
         http.addFilterBefore(customFilter, UsernamePasswordAuthenticationFilter.class);
     }
 }
@@ -1,6 +1,7 @@
 package it.polito.ai.virtualLabs.security;
 
-import org.springframework.http.HttpStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.GenericFilterBean;
@@ -12,49 +13,48 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public class JwtTokenFilter extends GenericFilterBean {
 
     private JwtTokenProvider jwtTokenProvider;
+    private Timer anonymousTimer;
+    private Timer authenticatedTimer;
+    private Timer rejectedTimer;
 
-    public JwtTokenFilter(JwtTokenProvider jwtTokenProvider) {
+    public JwtTokenFilter(JwtTokenProvider jwtTokenProvider, MeterRegistry meterRegistry) {
         this.jwtTokenProvider = jwtTokenProvider;
+        this.anonymousTimer = timer(meterRegistry, "anonymous");
+        this.authenticatedTimer = timer(meterRegistry, "authenticated");
+        this.rejectedTimer = timer(meterRegistry, "rejected");
+    }
+
+    private static Timer timer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("security.jwt.filter")
+                .description("Time spent authenticating the request, the rest of the chain excluded")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
     }
 
     @Override
     public void doFilter(ServletRequest req, ServletResponse res, FilterChain filterChain)
             throws IOException, ServletException {
 
+        long start = System.nanoTime();
+        Timer timer = anonymousTimer;
         String token = jwtTokenProvider.resolveToken((HttpServletRequest) req);
         if (token != null) {
-            if(jwtTokenProvider.validateToken(token)) {
-                Authentication auth = jwtTokenProvider.getAuthentication(token);
+            Authentication auth = jwtTokenProvider.authenticate(token);
+            if(auth != null) {
                 SecurityContextHolder.getContext().setAuthentication(auth);
+                timer = authenticatedTimer;
             } else {
                 //((HttpServletResponse) res).setStatus(600);
                 ((HttpServletResponse) res).sendError(600);
+                timer = rejectedTimer;
             }
         }
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         filterChain.doFilter(req, res);
     }
-
-    /*
-    @Override
-    public void doFilter(ServletRequest req, ServletResponse res, FilterChain filterChain)
-            throws IOException, ServletException {
-        String token = jwtTokenProvider.resolveToken((HttpServletRequest) req);
-        if (token != null) {
-            try {
-                if(!jwtTokenProvider.validateToken(token))
-                    throw new InvalidJwtAuthenticationException("Token expired");
-                Authentication auth = jwtTokenProvider.getAuthentication(token);
-                SecurityContextHolder.getContext().setAuthentication(auth);
-            } catch (InvalidJwtAuthenticationException ex) {
-                ((HttpServletResponse) res).setStatus(HttpStatus.LOCKED.value());
-            }
-        }
-        filterChain.doFilter(req, res);
-    }
-
-     */
 }
@@ -1,6 +1,7 @@
 package it.polito.ai.virtualLabs.security;
 
 import io.jsonwebtoken.*;
+import it.polito.ai.virtualLabs.entities.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -11,6 +12,7 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
 import java.util.List;
@@ -18,15 +20,25 @@ import java.util.List;
 @Component
 public class JwtTokenProvider {
 
+    //the only endpoint that accepts the token as a parameter, which ends up in the access logs with the url
+    private static final String EVENT_STREAM_PATH = "/API/vms/stream";
+
     @Value("${security.jwt.token.secret-key:secret}")
     private String secretKey = "secret";
 
     @Value("${security.jwt.token.expire-length:3600000}")
     private long validityInMilliseconds = 3600000; // 1h
 
+    //build the principal from the token claims instead of loading the user on every request
+    @Value("${security.jwt.token.stateless:true}")
+    private boolean stateless = true;
+
     @Autowired
     private UserDetailsService userDetailsService;
 
+    @Autowired
+    private JwtAuthenticationCache authenticationCache;
+
     @PostConstruct
     protected void init() {
         secretKey = Base64.getEncoder().encodeToString(secretKey.getBytes());
@@ -45,13 +57,38 @@ public class JwtTokenProvider {
                 .compact();
     }
 
-    public Authentication getAuthentication(String token) {
-        UserDetails userDetails = this.userDetailsService.loadUserByUsername(getUsername(token));
-        return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
-    }
+    public Authentication authenticate(String token) {
+        Authentication auth = authenticationCache.get(token);
+        if (auth != null)
+            return auth;
+
+        Claims claims;
+        try {
+            claims = Jwts.parser().setSigningKey(secretKey).parseClaimsJws(token).getBody();
+        } catch (ExpiredJwtException e) {
+            return null;
+        } catch (JwtException | IllegalArgumentException e) {
+            throw new InvalidJwtAuthenticationException("Invalid JWT token");
+        }
+        if (claims.getExpiration().before(new Date()))
+            return null;
 
-    public String getUsername(String token) {
-        return Jwts.parser().setSigningKey(secretKey).parseClaimsJws(token).getBody().getSubject();
+        UserDetails userDetails;
+        if (stateless) {
+            @SuppressWarnings("unchecked")
+            List<String> roles = claims.get("roles", List.class);
+            userDetails = User.builder()
+                    .username(claims.getSubject())
+                    .password("")
+                    .roles(roles != null ? roles : new ArrayList<>())
+                    .build();
+        } else {
+            userDetails = this.userDetailsService.loadUserByUsername(claims.getSubject());
+        }
+
+        auth = new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+        authenticationCache.put(token, auth, claims.getExpiration().getTime());
+        return auth;
     }
 
     public String resolveToken(HttpServletRequest req) {
@@ -59,17 +96,12 @@ public class JwtTokenProvider {
         if (bearerToken != null && bearerToken.startsWith("Bearer ")) {
             return bearerToken.substring(7, bearerToken.length());
         }
-        return null;
-    }
-
-    public boolean validateToken(String token) {
-        try {
-            Jws<Claims> claims = Jwts.parser().setSigningKey(secretKey).parseClaimsJws(token);
-            return !claims.getBody().getExpiration().before(new Date());
-        } catch (ExpiredJwtException e) {
-            return false;
-        } catch (JwtException | IllegalArgumentException e) {
-            throw new InvalidJwtAuthenticationException("Invalid JWT token");
+        //EventSource cannot set headers, so the vm event stream carries the token as a parameter
+        String path = req.getRequestURI().substring(req.getContextPath().length());
+        String accept = req.getHeader("Accept");
+        if (EVENT_STREAM_PATH.equals(path) && accept != null && accept.contains("text/event-stream")) {
+            return req.getParameter("access_token");
         }
+        return null;
     }
 }
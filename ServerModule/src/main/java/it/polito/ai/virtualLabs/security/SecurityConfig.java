@@ -1,5 +1,6 @@
 package it.polito.ai.virtualLabs.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -20,6 +21,8 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 
     @Autowired
     JwtTokenProvider jwtTokenProvider;
+    @Autowired
+    MeterRegistry meterRegistry;
 
     @Bean
     public PasswordEncoder passwordEncoder() {
@@ -48,8 +51,11 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 .antMatchers( "/API/**").authenticated()
                 .antMatchers( "/notification/protected").authenticated()
                 .antMatchers( "/notification/**").permitAll()
+                .antMatchers("/blobs/**").authenticated()
+                .antMatchers("/actuator/health").permitAll()
+                .antMatchers("/actuator/**").hasRole("PROFESSOR")
                 .and()
-                .apply(new JwtConfigurer(jwtTokenProvider));
+                .apply(new JwtConfigurer(jwtTokenProvider, meterRegistry));
         //@formatter:on
     }
 }
@@ -0,0 +1,139 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.entities.Report;
+import it.polito.ai.virtualLabs.repositories.AssignmentRepository;
+import it.polito.ai.virtualLabs.repositories.ReportRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+@Component
+public class AssignmentExpiryScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(AssignmentExpiryScheduler.class);
+
+    private static final long RETRY_DELAY_MILLIS = 60 * 1000L;
+    private static final List<Report.ReportStatus> PENDING_STATUSES = Arrays.asList(Report.ReportStatus.NULL, Report.ReportStatus.READ);
+
+    @Autowired
+    AssignmentRepository assignmentRepository;
+    @Autowired
+    ReportRepository reportRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    //time ordered queue of the upcoming expiries, one task for each assignment
+    private ThreadPoolTaskScheduler scheduler;
+    private final Map<Long, ScheduledFuture<?>> expiries = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("assignment-expiry-");
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.initialize();
+
+        //catch up with the assignments expired while the application was down
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            transactionTemplate.execute(status -> {
+                reportRepository.gradeExpiredReportsWithoutVersions(now, Report.ReportStatus.GRADED);
+                reportRepository.submitExpiredPendingReports(now, Report.ReportStatus.SUBMITTED, PENDING_STATUSES);
+                return null;
+            });
+        } catch (RuntimeException ex) {
+            log.error("Error in expiring the assignments expired before {}", now, ex);
+        }
+
+        assignmentRepository.getUpcomingExpiries(now).forEach(e -> schedule(e.getId(), e.getExpiryDate()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    //(re)schedules the expiry of an assignment once the current transaction commits
+    public void scheduleAfterCommit(Long assignmentId, LocalDateTime expiryDate) {
+        afterCommit(() -> schedule(assignmentId, expiryDate));
+    }
+
+    public void cancelAfterCommit(Long assignmentId) {
+        afterCommit(() -> cancel(assignmentId));
+    }
+
+    public int getScheduledCount() {
+        return expiries.size();
+    }
+
+    private void schedule(Long assignmentId, LocalDateTime expiryDate) {
+        schedule(assignmentId, Date.from(expiryDate.atZone(ZoneId.systemDefault()).toInstant()));
+    }
+
+    private void schedule(Long assignmentId, Date at) {
+        //the task gets its own future only once it is in the map, so an expiry date already past
+        //cannot run the task and remove its entry before the entry is there
+        CompletableFuture<ScheduledFuture<?>> self = new CompletableFuture<>();
+        ScheduledFuture<?> future = scheduler.schedule(() -> expire(assignmentId, self.join()), at);
+        ScheduledFuture<?> old = expiries.put(assignmentId, future);
+        self.complete(future);
+        if(old != null)
+            old.cancel(false);
+    }
+
+    private void cancel(Long assignmentId) {
+        ScheduledFuture<?> future = expiries.remove(assignmentId);
+        if(future != null)
+            future.cancel(false);
+    }
+
+    private void expire(Long assignmentId, ScheduledFuture<?> thisFuture) {
+        //the queries check the expiry date again, an assignment postponed in the meantime is left untouched
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            transactionTemplate.execute(status -> {
+                reportRepository.gradeReportsWithoutVersions(assignmentId, now, Report.ReportStatus.GRADED);
+                reportRepository.submitPendingReports(assignmentId, now, Report.ReportStatus.SUBMITTED, PENDING_STATUSES);
+                return null;
+            });
+            //a rescheduled expiry of the same assignment is left in place
+            expiries.remove(assignmentId, thisFuture);
+        } catch (RuntimeException ex) {
+            log.error("Error in expiring assignment {}, retrying in {} ms", assignmentId, RETRY_DELAY_MILLIS, ex);
+            if(expiries.get(assignmentId) == thisFuture)
+                schedule(assignmentId, new Date(System.currentTimeMillis() + RETRY_DELAY_MILLIS));
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
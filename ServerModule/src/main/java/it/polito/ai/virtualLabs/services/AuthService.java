@@ -21,6 +21,7 @@ public interface AuthService {
     void checkAuthorizationForCourse(String courseName);
     void checkAuthorizationForStudentInfo(String studentId);
     void checkAuthorizationForReport(Long reportId);
+    void checkAuthorizationForAnyReport(List<Long> reportIds);
     void checkAuthorizationForVm(Long vmId);
     void checkAuthorizationForVm(Long vmId, boolean mustBeOwner);
     void checkAuthorizationForTeamProposalMembers(String studentId);
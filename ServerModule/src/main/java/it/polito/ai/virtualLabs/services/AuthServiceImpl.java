@@ -6,8 +6,6 @@ import it.polito.ai.virtualLabs.repositories.*;
 import it.polito.ai.virtualLabs.security.JwtTokenProvider;
 import it.polito.ai.virtualLabs.services.exceptions.professor.ProfessorPrivacyException;
 import it.polito.ai.virtualLabs.services.exceptions.student.StudentPrivacyException;
-import it.polito.ai.virtualLabs.services.exceptions.team.TokenNotFoundException;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -29,8 +27,13 @@ public class AuthServiceImpl implements AuthService {
     private static final int REGISTRATION_EXPIRATION_DAYS = 3;
     private static final int REFRESH_EXPIRATION_DAYS = 30;
 
+    //TODO credentials regex
+    //also the format of the decoded refresh tokens, checked by TokenStore
+    static final Pattern USERNAME_PATTERN = Pattern.compile("[A-Fa-f0-9]{16}\\|((([s]\\d{6}[@]studenti[.])|([d]\\d{6}[@]))polito[.]it)");
+    private static final Pattern GOOD_PASS_PATTERN = Pattern.compile("(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?=.*[.@$!%*?&])[A-Za-z\\d.@$!%*?&]{8,32}");
+
     @Autowired
-    ModelMapper modelMapper;
+    DtoMapper dtoMapper;
     @Autowired
     JwtTokenProvider jwtTokenProvider;
     @Autowired
@@ -47,6 +50,10 @@ public class AuthServiceImpl implements AuthService {
     VmRepository vmRepository;
     @Autowired
     TokenRepository tokenRepository;
+    @Autowired
+    MembershipIndex membershipIndex;
+    @Autowired
+    TokenStore tokenStore;
 
     @Override
     public Optional<UserDTO> getUserByUsername(String username) {
@@ -54,7 +61,7 @@ public class AuthServiceImpl implements AuthService {
             return Optional.empty();
 
         return userRepository.findByUsername(username)
-                .map(u -> modelMapper.map(u, UserDTO.class));
+                .map(u -> dtoMapper.toUserDTO(u));
     }
 
     @Override
@@ -124,7 +131,10 @@ public class AuthServiceImpl implements AuthService {
         String returnToken;
         if(logging) {
             // remove token if it is already present
-            tokenOpt.ifPresent(refreshToken -> tokenRepository.deleteById(refreshToken.getToken()));
+            tokenOpt.ifPresent(refreshToken -> {
+                tokenRepository.deleteById(refreshToken.getToken());
+                tokenStore.evictRefreshToken(refreshToken.getToken());
+            });
 
             // create refresh token
             RefreshToken refreshToken = new RefreshToken();
@@ -149,35 +159,8 @@ public class AuthServiceImpl implements AuthService {
 
     @Override
     public boolean isRefreshTokenExpired(String token) {
-        String decodedToken = new String(Base64.getDecoder().decode(token));
-
-        // check if token has a valid format
-        //TODO refresh token regex
-        Pattern pattern = Pattern.compile("[A-Fa-f0-9]{16}\\|((([s]\\d{6}[@]studenti[.])|([d]\\d{6}[@]))polito[.]it)");
-        //Pattern pattern = Pattern.compile("[\\s\\S]*");
-        Matcher matcher = pattern.matcher(decodedToken);
-        if(!matcher.find())
-            throw new IllegalStateException("Invalid token format");
-
-        // check if decoded username is valid
-        String decodedUsername = decodedToken.split("\\|")[1];
-        Optional<User> userOpt = userRepository.findByUsernameAndRegisteredTrue(decodedUsername);
-        if(!userOpt.isPresent())
-            throw new UsernameNotFoundException("Username '" + decodedUsername + "' was not found");
-
-        // check if refresh token exists
-        User user = userOpt.get();
-        Optional<RefreshToken> refreshTokenOpt =  tokenRepository.findRefreshTokenByUserId(user.getId());
-        if(!refreshTokenOpt.isPresent())
-            throw new TokenNotFoundException("Token not found");
-
-        // check if token is valid
-        RefreshToken refreshToken = refreshTokenOpt.get();
-        if(!refreshToken.getToken().equals(token))
-            throw new IllegalStateException("Invalid provided token");
-
         // return false if token is expired, true otherwise
-        return refreshToken.getExpiration().isBefore(LocalDateTime.now());
+        return tokenStore.getRefreshTokenExpiration(token).isBefore(LocalDateTime.now());
     }
 
     @Override
@@ -197,21 +180,16 @@ public class AuthServiceImpl implements AuthService {
 
     @Override
     public void checkAuthorizationForCourse(String courseName) {
-        Course course = courseRepository.getOne(courseName);
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         userDetails.getAuthorities().forEach(role -> {
             if(role.getAuthority().equals("ROLE_STUDENT")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(s -> {
-                    Student student = (Student)s;
-                    if(!student.getCourses().contains(course))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(studentId -> {
+                    if(!membershipIndex.isInCourse(studentId, false, courseName))
                         throw new StudentPrivacyException("This student does not have permission to view the information relating to the course named " + courseName);
                 });
             } else if(role.getAuthority().equals("ROLE_PROFESSOR")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(p -> {
-                    Professor professor = (Professor)p;
-                    if(!professor.getCourses().contains(course))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(professorId -> {
+                    if(!membershipIndex.isInCourse(professorId, true, courseName))
                         throw new ProfessorPrivacyException("This professor does not have permission to view the information relating to the course named " + courseName);
                 });
             }
@@ -223,29 +201,13 @@ public class AuthServiceImpl implements AuthService {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         userDetails.getAuthorities().forEach(role -> {
             if(role.getAuthority().equals("ROLE_STUDENT")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(s -> {
-                    Student me = (Student)s;
-                    if(!me.getCourses()
-                            .stream()
-                            .flatMap(course -> course.getStudents()
-                                    .stream()
-                                    .map(Student::getId))
-                            .collect(Collectors.toList())
-                            .contains(studentId))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(myId -> {
+                    if(!membershipIndex.sharesCourseWith(myId, false, studentId))
                         throw new StudentPrivacyException("This student does not have permission to view the information relating to the student with id " + studentId);
                 });
             } else if(role.getAuthority().equals("ROLE_PROFESSOR")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(p -> {
-                    Professor me = (Professor)p;
-                    if(!me.getCourses()
-                            .stream()
-                            .flatMap(course -> course.getStudents()
-                                    .stream()
-                                    .map(Student::getId))
-                            .collect(Collectors.toList())
-                            .contains(studentId))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(myId -> {
+                    if(!membershipIndex.sharesCourseWith(myId, true, studentId))
                         throw new ProfessorPrivacyException("This professor does not have permission to view the information relating to the student with id " + studentId);
                 });
             }
@@ -254,22 +216,23 @@ public class AuthServiceImpl implements AuthService {
 
     @Override
     public void checkAuthorizationForReport(Long reportId) {
-        Report report = reportRepository.getOne(reportId);
+        checkAuthorizationForAnyReport(Collections.singletonList(reportId));
+    }
+
+    @Override
+    public void checkAuthorizationForAnyReport(List<Long> reportIds) {
+        String ids = reportIds.stream().map(String::valueOf).collect(Collectors.joining(", "));
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         userDetails.getAuthorities().forEach(role -> {
             if(role.getAuthority().equals("ROLE_STUDENT")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(s -> {
-                    Student student = (Student)s;
-                    if(!student.getReports().contains(report))
-                        throw new StudentPrivacyException("This student does not have permission to view the information relating to the report with id " + reportId);
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(studentId -> {
+                    if(reportIds.stream().noneMatch(reportId -> membershipIndex.getReportOwner(reportId).filter(studentId::equals).isPresent()))
+                        throw new StudentPrivacyException("This student does not have permission to view the information relating to the report with id " + ids);
                 });
             } else if(role.getAuthority().equals("ROLE_PROFESSOR")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(p -> {
-                    Professor professor = (Professor)p;
-                    if(!report.getAssignment().getCourse().getProfessors().contains(professor))
-                        throw new ProfessorPrivacyException("This professor does not have permission to view the information relating to the report with id " + reportId);
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(professorId -> {
+                    if(reportIds.stream().noneMatch(reportId -> membershipIndex.getReportCourse(reportId).filter(c -> membershipIndex.isInCourse(professorId, true, c)).isPresent()))
+                        throw new ProfessorPrivacyException("This professor does not have permission to view the information relating to the report with id " + ids);
                 });
             }
         });
@@ -277,23 +240,18 @@ public class AuthServiceImpl implements AuthService {
 
     @Override
     public void checkAuthorizationForVm(Long vmId, boolean mustBeOwner) {
-        Vm vm = vmRepository.getOne(vmId);
+        Optional<Long> teamId = membershipIndex.getVmTeam(vmId);
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         userDetails.getAuthorities().forEach(role -> {
             if(role.getAuthority().equals("ROLE_STUDENT")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(s -> {
-                    Student student = (Student)s;
-                    if((mustBeOwner && !vm.getOwners().stream().map(Student::getId).collect(Collectors.toList()).contains(student.getId())) ||
-                            (!mustBeOwner && !student.getTeams().contains(vm.getTeam())))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(studentId -> {
+                    if((mustBeOwner && !membershipIndex.isVmOwner(studentId, vmId)) ||
+                            (!mustBeOwner && !teamId.filter(t -> membershipIndex.isTeamMember(studentId, t)).isPresent()))
                         throw new StudentPrivacyException("This student does not have permission to view the information relating to the vm with id " + vmId);
                 });
             } else if(role.getAuthority().equals("ROLE_PROFESSOR")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(p -> {
-                    Professor professor = (Professor)p;
-                    List<Team> teams = professor.getCourses().stream().flatMap(course -> course.getTeams().stream()).collect(Collectors.toList());
-                    if(!teams.contains(vm.getTeam()))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(professorId -> {
+                    if(!teamId.flatMap(membershipIndex::getTeamCourse).filter(c -> membershipIndex.isInCourse(professorId, true, c)).isPresent())
                         throw new ProfessorPrivacyException("This professor does not have permission to view the information relating to the vm with id " + vmId);
                 });
             }
@@ -344,15 +302,13 @@ public class AuthServiceImpl implements AuthService {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         userDetails.getAuthorities().forEach(role -> {
             if(role.getAuthority().equals("ROLE_STUDENT")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(u -> {
-                    if(!u.getId().equals(userId))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(myId -> {
+                    if(!myId.equals(userId))
                         throw new StudentPrivacyException("The student with id '" + userId + "' does not have permission to view this info");
                 });
             } else if(role.getAuthority().equals("ROLE_PROFESSOR")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(u -> {
-                    if(!u.getId().equals(userId))
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(myId -> {
+                    if(!myId.equals(userId))
                         throw new ProfessorPrivacyException("The professor with id '" + userId + "' does not have permission to view this info");
                 });
             }
@@ -361,13 +317,8 @@ public class AuthServiceImpl implements AuthService {
 
     @Override
     public boolean checkCredentials(String username, String password) {
-        //TODO credentials regex
-        Pattern usernamePattern = Pattern.compile("[A-Fa-f0-9]{16}\\|((([s]\\d{6}[@]studenti[.])|([d]\\d{6}[@]))polito[.]it)");
-        Pattern goodPassPattern = Pattern.compile("(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?=.*[.@$!%*?&])[A-Za-z\\d.@$!%*?&]{8,32}");
-        //Pattern usernamePattern = Pattern.compile("[\\s\\S]*");
-        //Pattern goodPassPattern = Pattern.compile("[\\s\\S]*");
-        Matcher usernameMatcher = usernamePattern.matcher(username);
-        Matcher goodPassMatcher = goodPassPattern.matcher(password);
+        Matcher usernameMatcher = USERNAME_PATTERN.matcher(username);
+        Matcher goodPassMatcher = GOOD_PASS_PATTERN.matcher(password);
 
         return usernameMatcher.find() && goodPassMatcher.find();
     }
@@ -379,18 +330,9 @@ public class AuthServiceImpl implements AuthService {
             if(role.getAuthority().equals("ROLE_STUDENT")) {
                 throw new StudentPrivacyException("The student does not have permission to send message");
             } else if(role.getAuthority().equals("ROLE_PROFESSOR")) {
-                Optional<User> user = userRepository.findByUsernameAndRegisteredTrue(userDetails.getUsername());
-                user.ifPresent(u -> {
-                    Professor professor = (Professor)u;
-                    boolean found = false;
-                    for(Course course : professor.getCourses()) {
-                        if(course.getStudents().stream().map(Student::getUsername).collect(Collectors.toList()).containsAll(to)) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if(!found)
-                        throw new ProfessorPrivacyException("The professor with id '" + u.getId() + "' does not have permission to send message to these recipients");
+                membershipIndex.getUserId(userDetails.getUsername()).ifPresent(professorId -> {
+                    if(!membershipIndex.canWriteTo(professorId, to))
+                        throw new ProfessorPrivacyException("The professor with id '" + professorId + "' does not have permission to send message to these recipients");
                 });
             }
         });
@@ -0,0 +1,23 @@
+package it.polito.ai.virtualLabs.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+public interface BlobStore {
+
+    //stores the content and returns its key, the same content is always stored once under the same key
+    String put(InputStream content) throws IOException;
+
+    //keys are checked before they reach the other methods, an invalid key is never found
+    boolean isValidKey(String key);
+    boolean exists(String key);
+    long size(String key) throws IOException;
+    long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException;
+    boolean delete(String key) throws IOException;
+
+    //the file holding the content, for stores that keep it on the local file system
+    Optional<Path> getFile(String key);
+}
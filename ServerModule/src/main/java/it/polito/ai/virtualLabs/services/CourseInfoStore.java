@@ -0,0 +1,182 @@
+package it.polito.ai.virtualLabs.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.polito.ai.virtualLabs.metrics.CacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class CourseInfoStore implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(CourseInfoStore.class);
+
+    private static final String INFO_EXTENSION = ".txt";
+
+    @Value("${course-info.path:/home/files/course_info/}")
+    private String rootPath = "/home/files/course_info/";
+
+    //maximum number of characters kept in memory
+    @Value("${course-info.cache-size:4194304}")
+    private long maxSize = 4194304;
+
+    private Path root;
+    private WatchService watchService;
+
+    //courseName -> info, least recently used first; a missing file is cached as an empty info
+    private final LinkedHashMap<String, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    //bumped by every eviction, so that a read that raced with it is not stored
+    private long generation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        root = Paths.get(rootPath);
+        try {
+            Files.createDirectories(root);
+            watchService = root.getFileSystem().newWatchService();
+            root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException ex) {
+            //without watching, files changed outside the application are seen only after eviction
+            log.warn("Error in watching the course info in {}", root, ex);
+            return;
+        }
+
+        Thread watcher = new Thread(this::watch, "course-info-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if(watchService != null)
+            watchService.close();
+    }
+
+    public String get(String courseName) {
+        long readAt;
+        synchronized (this) {
+            String info = cache.get(courseName);
+            if(info != null) {
+                hits.incrementAndGet();
+                return info;
+            }
+            misses.incrementAndGet();
+            readAt = generation;
+        }
+
+        String info;
+        try {
+            info = new String(Files.readAllBytes(path(courseName)), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            info = "";
+        }
+
+        synchronized (this) {
+            if(generation == readAt)
+                store(courseName, info);
+        }
+        return info;
+    }
+
+    public void write(String courseName, String info) throws IOException {
+        //write a temporary file and rename it, readers never see a partial info
+        Path tmp = Files.createTempFile(root, courseName, ".tmp");
+        try {
+            Files.write(tmp, info.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path(courseName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict(courseName);
+    }
+
+    public void delete(String courseName) throws IOException {
+        try {
+            Files.deleteIfExists(path(courseName));
+        } finally {
+            evict(courseName);
+        }
+    }
+
+    public synchronized void evict(String courseName) {
+        generation++;
+        String info = cache.remove(courseName);
+        if(info != null)
+            size -= info.length();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CacheMetrics.bind(registry, "course.info", hits, misses);
+        Gauge.builder("cache.size", this, CourseInfoStore::getSize)
+                .description("Characters of course information held in memory")
+                .tag("cache", "course.info")
+                .register(registry);
+    }
+
+    public synchronized void evictAll() {
+        generation++;
+        cache.clear();
+        size = 0;
+    }
+
+    private void store(String courseName, String info) {
+        String old = cache.put(courseName, info);
+        size += info.length() - (old != null ? old.length() : 0);
+
+        Iterator<Map.Entry<String, String>> it = cache.entrySet().iterator();
+        while(size > maxSize && it.hasNext()) {
+            size -= it.next().getValue().length();
+            it.remove();
+        }
+    }
+
+    private void watch() {
+        while(true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+
+            for(WatchEvent<?> event : key.pollEvents()) {
+                if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    evictAll();
+                    continue;
+                }
+                String fileName = event.context().toString();
+                if(fileName.endsWith(INFO_EXTENSION))
+                    evict(fileName.substring(0, fileName.length() - INFO_EXTENSION.length()));
+            }
+            if(!key.reset())
+                return;
+        }
+    }
+
+    private Path path(String courseName) {
+        return root.resolve(courseName + INFO_EXTENSION);
+    }
+}
@@ -0,0 +1,186 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.dtos.*;
+import it.polito.ai.virtualLabs.entities.*;
+import org.springframework.stereotype.Component;
+
+//copies the fields of entities and dtos one by one, associations are never read or written
+@Component
+public class DtoMapper {
+
+    public AssignmentDTO toAssignmentDTO(Assignment assignment) {
+        AssignmentDTO dto = new AssignmentDTO();
+        dto.setId(assignment.getId());
+        dto.setName(assignment.getName());
+        dto.setReleaseDate(assignment.getReleaseDate());
+        dto.setExpiryDate(assignment.getExpiryDate());
+        dto.setContent(assignment.getContent());
+        return dto;
+    }
+
+    public Assignment toAssignment(AssignmentDTO dto) {
+        Assignment assignment = new Assignment();
+        assignment.setId(dto.getId());
+        assignment.setName(dto.getName());
+        assignment.setReleaseDate(dto.getReleaseDate());
+        assignment.setExpiryDate(dto.getExpiryDate());
+        assignment.setContent(dto.getContent());
+        return assignment;
+    }
+
+    public CourseDTO toCourseDTO(Course course) {
+        CourseDTO dto = new CourseDTO();
+        dto.setName(course.getName());
+        dto.setAcronym(course.getAcronym());
+        dto.setMinTeamSize(course.getMinTeamSize());
+        dto.setMaxTeamSize(course.getMaxTeamSize());
+        dto.setEnabled(course.isEnabled());
+        return dto;
+    }
+
+    public Course toCourse(CourseDTO dto) {
+        Course course = new Course();
+        course.setName(dto.getName());
+        course.setAcronym(dto.getAcronym());
+        course.setMinTeamSize(dto.getMinTeamSize());
+        course.setMaxTeamSize(dto.getMaxTeamSize());
+        course.setEnabled(dto.isEnabled());
+        return course;
+    }
+
+    public ReportDTO toReportDTO(Report report) {
+        ReportDTO dto = new ReportDTO();
+        dto.setId(report.getId());
+        dto.setStatus(report.getStatus());
+        dto.setStatusDate(report.getStatusDate());
+        dto.setGrade(report.getGrade());
+        return dto;
+    }
+
+    public Report toReport(ReportDTO dto) {
+        Report report = new Report();
+        report.setId(dto.getId());
+        report.setStatus(dto.getStatus());
+        report.setStatusDate(dto.getStatusDate());
+        report.setGrade(dto.getGrade());
+        return report;
+    }
+
+    public TeamDTO toTeamDTO(Team team) {
+        TeamDTO dto = new TeamDTO();
+        dto.setId(team.getId());
+        dto.setName(team.getName());
+        return dto;
+    }
+
+    public TeamProposalDTO toTeamProposalDTO(TeamProposal teamProposal) {
+        TeamProposalDTO dto = new TeamProposalDTO();
+        dto.setId(teamProposal.getId());
+        dto.setExpiryDate(teamProposal.getExpiryDate());
+        dto.setTeamName(teamProposal.getTeamName());
+        dto.setStatus(teamProposal.getStatus());
+        dto.setStatusDesc(teamProposal.getStatusDesc());
+        dto.setCreatorId(teamProposal.getCreatorId());
+        return dto;
+    }
+
+    public UserDTO toUserDTO(User user) {
+        return copy(user, new UserDTO());
+    }
+
+    public StudentDTO toStudentDTO(User student) {
+        return copy(student, new StudentDTO());
+    }
+
+    public Student toStudent(UserDTO dto) {
+        return copy(dto, new Student());
+    }
+
+    public ProfessorDTO toProfessorDTO(User professor) {
+        return copy(professor, new ProfessorDTO());
+    }
+
+    public Professor toProfessor(UserDTO dto) {
+        return copy(dto, new Professor());
+    }
+
+    public VersionDTO toVersionDTO(Version version) {
+        VersionDTO dto = new VersionDTO();
+        dto.setId(version.getId());
+        dto.setTitle(version.getTitle());
+        dto.setContent(version.getContent());
+        dto.setContentKey(version.getContentKey());
+        dto.setReviewKey(version.getReviewKey());
+        dto.setRevised(version.isRevised());
+        dto.setSubmissionDate(version.getSubmissionDate());
+        return dto;
+    }
+
+    public VmDTO toVmDTO(Vm vm) {
+        VmDTO dto = new VmDTO();
+        dto.setId(vm.getId());
+        dto.setActive(vm.isActive());
+        dto.setVCPU(vm.getVCPU());
+        dto.setRAM(vm.getRAM());
+        dto.setDisk(vm.getDisk());
+        dto.setContent(vm.getContent());
+        return dto;
+    }
+
+    public Vm toVm(VmDTO dto) {
+        Vm vm = new Vm();
+        vm.setId(dto.getId());
+        vm.setActive(dto.isActive());
+        vm.setVCPU(dto.getVCPU());
+        vm.setRAM(dto.getRAM());
+        vm.setDisk(dto.getDisk());
+        vm.setContent(dto.getContent());
+        return vm;
+    }
+
+    public VmModelDTO toVmModelDTO(VmModel vmModel) {
+        VmModelDTO dto = new VmModelDTO();
+        dto.setId(vmModel.getId());
+        dto.setName(vmModel.getName());
+        dto.setOs(vmModel.getOs());
+        dto.setMaxVCPU(vmModel.getMaxVCPU());
+        dto.setMaxDisk(vmModel.getMaxDisk());
+        dto.setMaxRAM(vmModel.getMaxRAM());
+        dto.setMaxTotVm(vmModel.getMaxTotVm());
+        dto.setMaxActiveVm(vmModel.getMaxActiveVm());
+        return dto;
+    }
+
+    public VmModel toVmModel(VmModelDTO dto) {
+        VmModel vmModel = new VmModel();
+        vmModel.setId(dto.getId());
+        vmModel.setName(dto.getName());
+        vmModel.setOs(dto.getOs());
+        vmModel.setMaxVCPU(dto.getMaxVCPU());
+        vmModel.setMaxDisk(dto.getMaxDisk());
+        vmModel.setMaxRAM(dto.getMaxRAM());
+        vmModel.setMaxTotVm(dto.getMaxTotVm());
+        vmModel.setMaxActiveVm(dto.getMaxActiveVm());
+        return vmModel;
+    }
+
+    private <T extends UserDTO> T copy(User user, T dto) {
+        dto.setId(user.getId());
+        dto.setUsername(user.getUsername());
+        dto.setPassword(user.getPassword());
+        dto.setName(user.getName());
+        dto.setSurname(user.getSurname());
+        dto.setPhoto(user.getPhoto());
+        return dto;
+    }
+
+    private <T extends User> T copy(UserDTO dto, T user) {
+        user.setId(dto.getId());
+        user.setUsername(dto.getUsername());
+        user.setPassword(dto.getPassword());
+        user.setName(dto.getName());
+        user.setSurname(dto.getSurname());
+        user.setPhoto(dto.getPhoto());
+        return user;
+    }
+}
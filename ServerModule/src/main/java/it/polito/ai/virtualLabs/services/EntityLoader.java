@@ -0,0 +1,108 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.entities.*;
+import it.polito.ai.virtualLabs.repositories.*;
+import it.polito.ai.virtualLabs.services.exceptions.assignment.AssignmentNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.course.CourseNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.professor.ProfessorNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.report.ReportNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.student.StudentNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.team.TeamNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.team.TeamProposalNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.version.VersionNotFoundException;
+import it.polito.ai.virtualLabs.services.exceptions.vm.VmNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+//load-or-throw for the services: a single select instead of existsById followed by getOne
+@Component
+public class EntityLoader {
+
+    @Autowired
+    AssignmentRepository assignmentRepository;
+    @Autowired
+    CourseRepository courseRepository;
+    @Autowired
+    ReportRepository reportRepository;
+    @Autowired
+    TeamProposalRepository teamProposalRepository;
+    @Autowired
+    TeamRepository teamRepository;
+    @Autowired
+    UserRepository userRepository;
+    @Autowired
+    VersionRepository versionRepository;
+    @Autowired
+    VmRepository vmRepository;
+
+    public Course loadCourse(String courseName) {
+        return courseRepository.findById(courseName).orElseThrow(() -> courseNotFound(courseName));
+    }
+
+    //courses are in the second-level cache, so loading one usually costs no statement while counting it always does
+    public void checkCourseExists(String courseName) {
+        loadCourse(courseName);
+    }
+
+    public Student loadStudent(String studentId) {
+        return userRepository.findStudentById(studentId).orElseThrow(() -> studentNotFound(studentId));
+    }
+
+    public Professor loadProfessor(String professorId) {
+        return userRepository.findProfessorById(professorId).orElseThrow(() -> professorNotFound(professorId));
+    }
+
+    public Team loadTeam(Long teamId) {
+        return teamRepository.findById(teamId).orElseThrow(() -> teamNotFound(teamId));
+    }
+
+    public TeamProposal loadTeamProposal(Long teamProposalId) {
+        return teamProposalRepository.findById(teamProposalId).orElseThrow(() -> teamProposalNotFound(teamProposalId));
+    }
+
+    public Vm loadVm(Long vmId) {
+        return vmRepository.findById(vmId).orElseThrow(() -> vmNotFound(vmId));
+    }
+
+    public Assignment loadAssignment(Long assignmentId) {
+        return assignmentRepository.findById(assignmentId)
+                .orElseThrow(() -> new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist"));
+    }
+
+    public Report loadReport(Long reportId) {
+        return reportRepository.findById(reportId).orElseThrow(() -> reportNotFound(reportId));
+    }
+
+    public Version loadVersion(Long versionId) {
+        return versionRepository.findById(versionId)
+                .orElseThrow(() -> new VersionNotFoundException("The version with id " + versionId + " does not exist"));
+    }
+
+    public static CourseNotFoundException courseNotFound(String courseName) {
+        return new CourseNotFoundException("The course named '" + courseName + "' was not found");
+    }
+
+    public static StudentNotFoundException studentNotFound(String studentId) {
+        return new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+    }
+
+    public static ProfessorNotFoundException professorNotFound(String professorId) {
+        return new ProfessorNotFoundException("The professor with id '" + professorId + "' was not found");
+    }
+
+    public static TeamNotFoundException teamNotFound(Long teamId) {
+        return new TeamNotFoundException("The team with id '" + teamId + "' was not found");
+    }
+
+    public static TeamProposalNotFoundException teamProposalNotFound(Long teamProposalId) {
+        return new TeamProposalNotFoundException("The team proposal with id '" + teamProposalId + "' was not found");
+    }
+
+    public static VmNotFoundException vmNotFound(Long vmId) {
+        return new VmNotFoundException("The vm with id " + vmId + " does not exist");
+    }
+
+    public static ReportNotFoundException reportNotFound(Long reportId) {
+        return new ReportNotFoundException("The report with id " + reportId + " does not exist");
+    }
+}
@@ -3,6 +3,7 @@ package it.polito.ai.virtualLabs.services;
 import it.polito.ai.virtualLabs.dtos.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,7 +12,7 @@ public interface LabService {
     Optional<ReportDTO> getReport(Long reportId);
     Optional<AssignmentDTO> getAssignment(Long assignmentId);
     Optional<VersionDTO> getVersion(Long versionId);
-    List<AssignmentDTO> getAllAssignments();
+    List<AssignmentDTO> getAllAssignments(Long afterId, int limit);
     Optional<ReportDTO> getStudentReportForAssignment(String studentUsername, Long assignmentId);
     List<ReportDTO> getAssignmentReports(Long assignmentId);
     Optional<ProfessorDTO> getAssignmentProfessor(Long assignmentId);
@@ -21,6 +22,7 @@ public interface LabService {
     Optional<ReportDTO> getReportForVersion(Long versionId);
     Optional<AssignmentDTO> getAssignmentForReport(Long reportId);
     Optional<CourseDTO> getAssignmentCourse(Long assignmentId);
+    boolean canReadBlob(String key);
 
     Long addAssignmentToCourse(AssignmentDTO assignmentDTO, String courseName, String professorId);
     boolean addReportToAssignment(ReportDTO reportDTO, Long assignmentId, String studentId);
@@ -28,6 +30,6 @@ public interface LabService {
     boolean removeAssignment(Long assignmentId);
     boolean editAssignment(Long assignmentId, AssignmentDTO assignmentDTO);
     boolean gradeReport(Long reportId, Float grade);
-    boolean reviewVersion(Long versionId, String review);
+    boolean reviewVersion(Long versionId, InputStream review);
     boolean markReportAsRead(Long reportId);
 }
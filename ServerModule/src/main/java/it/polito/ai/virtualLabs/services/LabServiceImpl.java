@@ -3,38 +3,30 @@ package it.polito.ai.virtualLabs.services;
 import it.polito.ai.virtualLabs.dtos.*;
 import it.polito.ai.virtualLabs.entities.*;
 import it.polito.ai.virtualLabs.repositories.*;
-import it.polito.ai.virtualLabs.services.exceptions.assignment.AssignmentNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.course.CourseNotFoundException;
-import it.polito.ai.virtualLabs.services.exceptions.professor.ProfessorNotFoundException;
-import it.polito.ai.virtualLabs.services.exceptions.report.ReportNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.student.StudentNotFoundException;
-import it.polito.ai.virtualLabs.services.exceptions.version.VersionNotFoundException;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.transaction.Transactional;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
-import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
+import static it.polito.ai.virtualLabs.services.EntityLoader.reportNotFound;
+
 @Service
 @Transactional
 public class LabServiceImpl implements LabService {
 
-    private static final String VERSION_CONTENT_PATH = "home/files/images/lab/versions/";
-    private static final String VERSION_CONTENT_FORMAT = "png";
-    private static final String REVIEW_IMAGE_PATH = "home/files/images/lab/reviews/";
-    private static final String REVIEW_IMAGE_FORMAT = "png";
-
     @Autowired
     AssignmentRepository assignmentRepository;
     @Autowired
@@ -48,18 +40,26 @@ public class LabServiceImpl implements LabService {
     @Autowired
     AuthService authService;
     @Autowired
-    ModelMapper modelMapper;
+    DtoMapper dtoMapper;
+    @Autowired
+    MembershipIndex membershipIndex;
+    @Autowired
+    EntityLoader entityLoader;
+    @Autowired
+    BlobStore blobStore;
+    @Autowired
+    AssignmentExpiryScheduler assignmentExpiryScheduler;
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Optional<ReportDTO> getReport(Long reportId) {
-        if (!reportRepository.existsById(reportId))
+        Optional<Report> reportOpt = reportRepository.findById(reportId);
+        if (!reportOpt.isPresent())
             return Optional.empty();
 
         authService.checkAuthorizationForReport(reportId);
 
-        return reportRepository.findById(reportId)
-                .map(r -> modelMapper.map(r, ReportDTO.class));
+        return reportOpt.map(r -> dtoMapper.toReportDTO(r));
     }
 
     @Override
@@ -71,173 +71,137 @@ public class LabServiceImpl implements LabService {
 
         authService.checkAuthorizationForCourse(assignmentOpt.get().getCourse().getName());
 
-        return assignmentOpt.map(a -> modelMapper.map(a, AssignmentDTO.class));
+        return assignmentOpt.map(a -> dtoMapper.toAssignmentDTO(a));
     }
 
     @Override
     public Optional<VersionDTO> getVersion(Long versionId) {
-        if (!versionRepository.existsById(versionId))
-            return Optional.empty();
         return versionRepository.findById(versionId)
-                .map(v -> modelMapper.map(v, VersionDTO.class));
+                .map(v -> dtoMapper.toVersionDTO(v));
     }
 
     @Override
-    public List<AssignmentDTO> getAllAssignments() {
-        return assignmentRepository.findAll()
+    public List<AssignmentDTO> getAllAssignments(Long afterId, int limit) {
+        return assignmentRepository.findAllAfter(afterId != null ? afterId : 0L, PageRequest.of(0, limit))
                 .stream()
-                .map(a -> modelMapper.map(a, AssignmentDTO.class))
+                .map(a -> dtoMapper.toAssignmentDTO(a))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     public Optional<ReportDTO> getStudentReportForAssignment(String studentUsername, Long assignmentId) {
-        if(!userRepository.studentExistsByUsername(studentUsername))
-            throw new StudentNotFoundException("The student with username '" + studentUsername + "' does not exist");
-
-        Optional<Assignment> assignmentOpt = assignmentRepository.findById(assignmentId);
-        if(!assignmentOpt.isPresent())
-            throw new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist");
+        Student s = userRepository.findStudentByUsername(studentUsername)
+                .orElseThrow(() -> new StudentNotFoundException("The student with username '" + studentUsername + "' does not exist"));
+        Assignment assignment = entityLoader.loadAssignment(assignmentId);
 
-        authService.checkAuthorizationForCourse(assignmentOpt.get().getCourse().getName());
+        authService.checkAuthorizationForCourse(assignment.getCourse().getName());
 
-        Student s = userRepository.getStudentByUsername(studentUsername);
-        return s.getReports()
-                .stream()
-                .filter(r -> r.getAssignment().getId().equals(assignmentId))
-                .findFirst()
-                .map(r -> modelMapper.map(r, ReportDTO.class));
+        //a single lookup instead of loading every report of the student
+        return reportRepository.findReportByAssignmentIdAndOwnerId(assignmentId, s.getId())
+                .map(r -> dtoMapper.toReportDTO(r));
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public List<ReportDTO> getAssignmentReports(Long assignmentId) {
-        Optional<Assignment> assignmentOpt = assignmentRepository.findById(assignmentId);
-        if(!assignmentOpt.isPresent())
-            throw new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist");
-
-        Assignment a = assignmentOpt.get();
+        Assignment a = entityLoader.loadAssignment(assignmentId);
         authService.checkAuthorizationForCourse(a.getCourse().getName());
 
         return a.getReports()
                 .stream()
-                .map(r -> modelMapper.map(r, ReportDTO.class))
+                .map(r -> dtoMapper.toReportDTO(r))
                 .collect(Collectors.toList());
     }
 
     @Override
     public Optional<ProfessorDTO> getAssignmentProfessor(Long assignmentId) {
-        if(!assignmentRepository.existsById(assignmentId))
-            throw new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist");
-
-        Assignment a = assignmentRepository.getOne(assignmentId);
-        return Optional.of(modelMapper.map(a.getProfessor(), ProfessorDTO.class));
+        Assignment a = entityLoader.loadAssignment(assignmentId);
+        return Optional.of(dtoMapper.toProfessorDTO(a.getProfessor()));
     }
 
     @Override
     public List<VersionDTO> getReportVersions(Long reportId) {
-        if(!reportRepository.existsById(reportId))
-            throw new ReportNotFoundException("The report with id " + reportId + " does not exist");
+        Report r = reportRepository.findWithVersionsById(reportId)
+                .orElseThrow(() -> reportNotFound(reportId));
 
         authService.checkAuthorizationForReport(reportId);
 
-        Report r = reportRepository.getOne(reportId);
         return r.getVersions()
                 .stream()
-                .map(v -> modelMapper.map(v, VersionDTO.class))
+                .map(v -> dtoMapper.toVersionDTO(v))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Optional<StudentDTO> getReportOwner(Long reportId) {
-        if(!reportRepository.existsById(reportId))
-            throw new ReportNotFoundException("The report with id " + reportId + " does not exist");
+        Report r = entityLoader.loadReport(reportId);
 
         authService.checkAuthorizationForReport(reportId);
 
-        Report r = reportRepository.getOne(reportId);
-        return Optional.of(modelMapper.map(r.getOwner(), StudentDTO.class));
+        return Optional.of(dtoMapper.toStudentDTO(r.getOwner()));
     }
 
     @Override
     public List<AssignmentDTO> getCourseAssignments(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named " + courseName + " does not exist");
-
-        Course c = courseRepository.getOne(courseName);
-        List<Assignment> assignments = c.getAssignments();
-
-        assignments.forEach(assignment -> {
-            if(assignment.getExpiryDate().isBefore(LocalDateTime.now())) {
-                assignment.getReports().forEach(report -> {
-                    if(report.getVersions().isEmpty()) {
-                        report.setStatus(Report.ReportStatus.GRADED);
-                        report.setStatusDate(LocalDateTime.now());
-                        report.setGrade(0f);
-                    } else {
-                        if(report.getStatus() == Report.ReportStatus.NULL || report.getStatus() == Report.ReportStatus.READ) {
-                            report.setStatus(Report.ReportStatus.SUBMITTED);
-                            report.setStatusDate(LocalDateTime.now());
-                        }
-                    }
-                });
-            }
-        });
-
-        return c.getAssignments()
+        //reports of expired assignments are updated by AssignmentExpiryScheduler
+        return courseRepository.findWithAssignmentsByName(courseName)
+                .orElseThrow(() -> new CourseNotFoundException("The course named " + courseName + " does not exist"))
+                .getAssignments()
                 .stream()
-                .map(a -> modelMapper.map(a, AssignmentDTO.class))
+                .map(a -> dtoMapper.toAssignmentDTO(a))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Optional<ReportDTO> getReportForVersion(Long versionId) {
-        Optional<Version> versionOpt = versionRepository.findById(versionId);
-        if(!versionOpt.isPresent())
-            throw new VersionNotFoundException("The version with id " + versionId + " does not exist");
+        Version version = entityLoader.loadVersion(versionId);
 
-        authService.checkAuthorizationForReport(versionOpt.get().getReport().getId());
+        authService.checkAuthorizationForReport(version.getReport().getId());
 
-        return Optional.of(modelMapper.map(versionRepository.getOne(versionId).getReport(), ReportDTO.class));
+        return Optional.of(dtoMapper.toReportDTO(version.getReport()));
+    }
+
+    @Override
+    public boolean canReadBlob(String key) {
+        //deduplicated content may be shared by the versions of several reports, reading one of them is enough
+        List<Long> reportIds = versionRepository.getReportIdsByBlobKey(key);
+        if(reportIds.isEmpty())
+            return false;
+
+        authService.checkAuthorizationForAnyReport(reportIds);
+        return true;
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Optional<AssignmentDTO> getAssignmentForReport(Long reportId) {
-        if(!reportRepository.existsById(reportId))
-            throw new AssignmentNotFoundException("The report with id " + reportId + " does not exist");
+        Report report = entityLoader.loadReport(reportId);
 
         authService.checkAuthorizationForReport(reportId);
 
-        return Optional.of(modelMapper.map(reportRepository.getOne(reportId).getAssignment(), AssignmentDTO.class));
+        return Optional.of(dtoMapper.toAssignmentDTO(report.getAssignment()));
     }
 
     @Override
     public Optional<CourseDTO> getAssignmentCourse(Long assignmentId) {
-        if(!assignmentRepository.existsById(assignmentId))
-            throw new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist");
-
-        return Optional.of(modelMapper.map(assignmentRepository.getOne(assignmentId).getCourse(), CourseDTO.class));
+        return Optional.of(dtoMapper.toCourseDTO(entityLoader.loadAssignment(assignmentId).getCourse()));
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Long addAssignmentToCourse(AssignmentDTO assignmentDTO, String courseName, String professorId) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named " + courseName + " does not exist");
-        if(!userRepository.professorExistsById(professorId))
-            throw new ProfessorNotFoundException("The professor with id " + professorId + " does not exist");
+        Course course = courseRepository.findWithAssignmentsByName(courseName)
+                .orElseThrow(() -> new CourseNotFoundException("The course named " + courseName + " does not exist"));
+        Professor professor = entityLoader.loadProfessor(professorId);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        Course course = courseRepository.getOne(courseName);
-        Professor professor = userRepository.getProfessorById(professorId);
         assignmentDTO.setReleaseDate(LocalDateTime.now());
         assignmentDTO.setExpiryDate(assignmentDTO.getExpiryDate());
-        Assignment assignment = modelMapper.map(assignmentDTO, Assignment.class);
+        Assignment assignment = dtoMapper.toAssignment(assignmentDTO);
 
         //check if there is already an assignment with that name in that course
         if(course.getAssignments().stream().anyMatch(a -> a.getName().equals(assignmentDTO.getName())) ||
@@ -256,19 +220,15 @@ public class LabServiceImpl implements LabService {
         assignment.setCourse(course);
         assignment.setProfessor(professor);
 
+        assignmentExpiryScheduler.scheduleAfterCommit(assignment.getId(), assignment.getExpiryDate());
         return assignment.getId();
     }
 
     @Override
     public boolean addReportToAssignment(ReportDTO reportDTO, Long assignmentId, String studentId) {
-        if(!assignmentRepository.existsById(assignmentId))
-            throw new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist");
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id " + studentId + " does not exist");
-
-        Assignment assignment = assignmentRepository.getOne(assignmentId);
-        Student student = userRepository.getStudentById(studentId);
-        Report report = modelMapper.map(reportDTO, Report.class);
+        Assignment assignment = entityLoader.loadAssignment(assignmentId);
+        Student student = entityLoader.loadStudent(studentId);
+        Report report = dtoMapper.toReport(reportDTO);
 
         //check if there is already a report for that assignmentId and studentId
         if(reportRepository.findReportByAssignmentIdAndOwnerId(assignmentId, studentId).isPresent())
@@ -284,14 +244,12 @@ public class LabServiceImpl implements LabService {
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
+    @RetryOnConflict
     public boolean addVersionToReport(Long reportId, String title, MultipartFile inputFile) {
-        if(!reportRepository.existsById(reportId))
-            throw new ReportNotFoundException("The report with id " + reportId + " does not exist");
+        Report report = entityLoader.loadReport(reportId);
 
         authService.checkAuthorizationForReport(reportId);
 
-        Report report = reportRepository.getOne(reportId);
-
         //if assignment is expired you cannot add a new version unless its revised or read
         if(report.getStatus() != Report.ReportStatus.REVISED && report.getStatus() != Report.ReportStatus.READ)
             return false;
@@ -299,15 +257,8 @@ public class LabServiceImpl implements LabService {
         Version version = new Version();
         version.setTitle(title);
 
-        String imageName = report.getOwner().getId() + "|" + System.currentTimeMillis();
-        version.setContent(Base64.getEncoder().withoutPadding().encodeToString(imageName.getBytes()));
-
-        try {
-            File file = new File(VERSION_CONTENT_PATH + version.getContent() + "." + VERSION_CONTENT_FORMAT);
-            file.createNewFile();
-            FileOutputStream stream = new FileOutputStream(file);
-            stream.write(inputFile.getBytes());
-            stream.close();
+        try (InputStream content = inputFile.getInputStream()) {
+            version.setContentKey(blobStore.put(content));
         } catch (IOException ex) {
             return false;
         }
@@ -323,25 +274,23 @@ public class LabServiceImpl implements LabService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean removeAssignment(Long assignmentId) {
-        if(!assignmentRepository.existsById(assignmentId))
-            throw new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist");
+        Assignment assignment = entityLoader.loadAssignment(assignmentId);
 
-        authService.checkAuthorizationForReport(assignmentRepository.getOne(assignmentId).getReports().get(0).getId());
+        authService.checkAuthorizationForReport(assignment.getReports().get(0).getId());
 
         //remove assignment
+        assignment.getReports().forEach(r -> membershipIndex.invalidateReport(r.getId()));
         assignmentRepository.deleteById(assignmentId);
         assignmentRepository.flush();
+        assignmentExpiryScheduler.cancelAfterCommit(assignmentId);
         return true;
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean editAssignment(Long assignmentId, AssignmentDTO assignmentDTO) {
-        if(!assignmentRepository.existsById(assignmentId))
-            throw new AssignmentNotFoundException("The assignment with id " + assignmentId + " does not exist");
-
         //check date and name constraints
-        Assignment assignment = assignmentRepository.getOne(assignmentId);
+        Assignment assignment = entityLoader.loadAssignment(assignmentId);
 
         authService.checkAuthorizationForReport(assignment.getReports().get(0).getId());
 
@@ -356,15 +305,16 @@ public class LabServiceImpl implements LabService {
         assignment.setExpiryDate(assignmentDTO.getExpiryDate());
 
         assignmentRepository.saveAndFlush(assignment);
+        assignmentExpiryScheduler.scheduleAfterCommit(assignmentId, assignment.getExpiryDate());
 
         return true;
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
+    @RetryOnConflict
     public boolean gradeReport(Long reportId, Float grade) {
-        if(!reportRepository.existsById(reportId))
-            throw new ReportNotFoundException("The report with id " + reportId + " does not exist");
+        Report report = entityLoader.loadReport(reportId);
 
         authService.checkAuthorizationForReport(reportId);
 
@@ -372,9 +322,6 @@ public class LabServiceImpl implements LabService {
         if(grade < 0 || grade > 30)
             return false;
 
-        //check if there is already a grade for that report
-        Report report = reportRepository.getOne(reportId);
-
         //the assignment must be expired and the report must be submitted
         if(report.getAssignment().getExpiryDate().isAfter(LocalDateTime.now()) && report.getStatus() != Report.ReportStatus.SUBMITTED)
             return false;
@@ -390,11 +337,9 @@ public class LabServiceImpl implements LabService {
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
-    public boolean reviewVersion(Long versionId, String review) {
-        if(!versionRepository.existsById(versionId))
-            throw new VersionNotFoundException("The version with id " + versionId + " does not exist");
-
-        Version version = versionRepository.getOne(versionId);
+    @RetryOnConflict
+    public boolean reviewVersion(Long versionId, InputStream review) {
+        Version version = entityLoader.loadVersion(versionId);
         Report report = version.getReport();
 
         authService.checkAuthorizationForReport(report.getId());
@@ -416,23 +361,20 @@ public class LabServiceImpl implements LabService {
         if(!isLast.get())
             return false;
 
-
-        byte[] image = Base64.getDecoder().decode(review);
+        //the report is written before reading the review: a concurrent change of the report fails here,
+        //so that a retry never finds the stream already consumed
+        report.setStatus(Report.ReportStatus.REVISED);
+        report.setStatusDate(LocalDateTime.now());
+        reportRepository.saveAndFlush(report);
 
         try {
-            File file = new File(REVIEW_IMAGE_PATH + version.getContent() + "." + REVIEW_IMAGE_FORMAT);
-            file.createNewFile();
-            FileOutputStream fileStream = new FileOutputStream(file, false);
-
-            fileStream.write(image);
-            fileStream.close();
+            version.setReviewKey(blobStore.put(review));
         } catch (IOException ex) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return false;
         }
 
         version.setRevised(true);
-        version.getReport().setStatus(Report.ReportStatus.REVISED);
-        version.getReport().setStatusDate(LocalDateTime.now());
         versionRepository.saveAndFlush(version);
 
         return true;
@@ -441,13 +383,12 @@ public class LabServiceImpl implements LabService {
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
+    @RetryOnConflict
     public boolean markReportAsRead(Long reportId) {
-        if(!reportRepository.existsById(reportId))
-            throw new ReportNotFoundException("The report with id " + reportId + " does not exist");
+        Report report = entityLoader.loadReport(reportId);
 
         authService.checkAuthorizationForReport(reportId);
 
-        Report report = this.reportRepository.getOne(reportId);
         if(report.getStatus() != Report.ReportStatus.NULL)
             return false;
 
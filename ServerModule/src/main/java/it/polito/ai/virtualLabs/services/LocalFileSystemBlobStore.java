@@ -0,0 +1,121 @@
+package it.polito.ai.virtualLabs.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+@Component
+public class LocalFileSystemBlobStore implements BlobStore {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final String TMP_DIRECTORY = "tmp";
+
+    @Value("${blobs.path:home/files/blobs/}")
+    private String rootPath = "home/files/blobs/";
+
+    private Path root;
+
+    @PostConstruct
+    protected void init() {
+        root = Paths.get(rootPath);
+    }
+
+    @Override
+    public boolean isValidKey(String key) {
+        return key != null && KEY_PATTERN.matcher(key).matches();
+    }
+
+    @Override
+    public String put(InputStream content) throws IOException {
+        //the content is hashed while it is copied to a temporary file, then moved to the path of its hash
+        Path tmpDirectory = root.resolve(TMP_DIRECTORY);
+        Files.createDirectories(tmpDirectory);
+        Path tmp = Files.createTempFile(tmpDirectory, "blob", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            Files.copy(new DigestInputStream(content, digest), tmp, StandardCopyOption.REPLACE_EXISTING);
+            String key = toHex(digest.digest());
+
+            //an identical blob is already stored, the copy is dropped
+            Path target = path(key);
+            if(!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return key;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return isValidKey(key) && Files.isRegularFile(path(key));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(path(key));
+    }
+
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(key), StandardOpenOption.READ)) {
+            long end = Math.min(position + count, channel.size());
+            long current = position;
+            while(current < end) {
+                long transferred = channel.transferTo(current, end - current, target);
+                if(transferred <= 0)
+                    break;
+                current += transferred;
+            }
+            return current - position;
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(path(key));
+    }
+
+    @Override
+    public Optional<Path> getFile(String key) {
+        return exists(key) ? Optional.of(path(key)) : Optional.empty();
+    }
+
+    private Path path(String key) {
+        if(!isValidKey(key))
+            throw new IllegalArgumentException("Invalid blob key " + key);
+
+        //two levels of sharding keep the directories small
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    private MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package it.polito.ai.virtualLabs.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.polito.ai.virtualLabs.entities.OutgoingMail;
+import it.polito.ai.virtualLabs.repositories.OutgoingMailRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+@Component
+public class MailDispatcher implements MeterBinder {
+
+    private static final int BATCH_SIZE = 50;
+    private static final int WORKERS = 2;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long POLL_DELAY_MILLIS = 2000;
+    private static final long LEASE_SECONDS = 5 * 60;
+    private static final long BASE_BACKOFF_SECONDS = 30;
+    private static final long MAX_BACKOFF_SECONDS = 60 * 60;
+
+    @Autowired
+    JavaMailSender emailSender;
+    @Autowired
+    OutgoingMailRepository outgoingMailRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    private ThreadPoolTaskExecutor workers;
+
+    private final AtomicLong pendingMails = new AtomicLong();
+    private final AtomicLong failedMails = new AtomicLong();
+    private final AtomicLong sentMails = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        workers = new ThreadPoolTaskExecutor();
+        workers.setCorePoolSize(WORKERS);
+        workers.setMaxPoolSize(WORKERS);
+        workers.setQueueCapacity(WORKERS);
+        workers.setThreadNamePrefix("mail-");
+        workers.setWaitForTasksToCompleteOnShutdown(true);
+        workers.setAwaitTerminationSeconds(30);
+        workers.initialize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    @Scheduled(fixedDelay = POLL_DELAY_MILLIS)
+    public void dispatch() {
+        pendingMails.set(outgoingMailRepository.countByFailedFalse());
+        failedMails.set(outgoingMailRepository.countByFailedTrue());
+
+        //claim batches only while there is a free worker, so that claimed mails do not wait for the lease to expire
+        while(workers.getThreadPoolExecutor().getQueue().remainingCapacity() > 0) {
+            List<OutgoingMail> batch = claim();
+            if(batch.isEmpty())
+                return;
+
+            try {
+                workers.execute(() -> send(batch));
+            } catch (TaskRejectedException ex) {
+                return;
+            }
+
+            if(batch.size() < BATCH_SIZE)
+                return;
+        }
+    }
+
+    private List<OutgoingMail> claim() {
+        return transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<OutgoingMail> due = outgoingMailRepository.findDue(now, PageRequest.of(0, BATCH_SIZE));
+            if(!due.isEmpty())
+                outgoingMailRepository.lease(due.stream().map(OutgoingMail::getId).collect(Collectors.toList()),
+                        now.plusSeconds(LEASE_SECONDS));
+            return due;
+        });
+    }
+
+    private void send(List<OutgoingMail> batch) {
+        Map<MimeMessage, OutgoingMail> messages = new LinkedHashMap<>();
+        Map<Long, String> failures = new HashMap<>();
+        for(OutgoingMail mail : batch) {
+            try {
+                MimeMessage message = emailSender.createMimeMessage();
+                MimeMessageHelper helper = new MimeMessageHelper(message, "utf-8");
+                helper.setText(mail.getBody(), true);
+                helper.setTo(mail.getAddress());
+                helper.setSubject(mail.getSubject());
+                messages.put(message, mail);
+            } catch (MessagingException ex) {
+                //a message that cannot be built will never be sent
+                failures.put(mail.getId(), null);
+            }
+        }
+
+        Set<Long> sent = messages.values().stream().map(OutgoingMail::getId).collect(Collectors.toSet());
+        if(!messages.isEmpty()) {
+            try {
+                //all the messages of the batch go through the same smtp connection
+                emailSender.send(messages.keySet().toArray(new MimeMessage[0]));
+            } catch (MailSendException ex) {
+                Map<Object, Exception> failedMessages = ex.getFailedMessages();
+                messages.forEach((message, mail) -> {
+                    if(failedMessages.isEmpty() || failedMessages.containsKey(message)) {
+                        sent.remove(mail.getId());
+                        failures.put(mail.getId(), String.valueOf(ex.getMessage()));
+                    }
+                });
+            } catch (MailException ex) {
+                sent.clear();
+                messages.values().forEach(mail -> failures.put(mail.getId(), String.valueOf(ex.getMessage())));
+            }
+        }
+
+        sentMails.addAndGet(sent.size());
+        sendErrors.addAndGet(failures.size());
+        transactionTemplate.execute(status -> {
+            if(!sent.isEmpty())
+                outgoingMailRepository.deleteSent(sent);
+            failures.forEach(this::reschedule);
+            return null;
+        });
+    }
+
+    private void reschedule(Long mailId, String error) {
+        outgoingMailRepository.findById(mailId).ifPresent(mail -> {
+            mail.setAttempts(mail.getAttempts() + 1);
+            mail.setLastError(error == null ? "Invalid message" : error.substring(0, Math.min(error.length(), 255)));
+            if(error == null || mail.getAttempts() >= MAX_ATTEMPTS) {
+                mail.setFailed(true);
+            } else {
+                //exponential backoff: 30s, 1m, 2m, ... up to one hour
+                long delay = Math.min(BASE_BACKOFF_SECONDS << (mail.getAttempts() - 1), MAX_BACKOFF_SECONDS);
+                mail.setNextAttempt(LocalDateTime.now().plusSeconds(delay));
+            }
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("mail.outbox.pending", pendingMails, AtomicLong::get)
+                .description("Mails waiting to be sent")
+                .register(registry);
+        Gauge.builder("mail.outbox.failed", failedMails, AtomicLong::get)
+                .description("Mails given up after too many attempts")
+                .register(registry);
+        FunctionCounter.builder("mail.sent", sentMails, AtomicLong::get)
+                .register(registry);
+        FunctionCounter.builder("mail.send.errors", sendErrors, AtomicLong::get)
+                .register(registry);
+    }
+}
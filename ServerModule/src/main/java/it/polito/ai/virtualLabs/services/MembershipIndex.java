@@ -0,0 +1,192 @@
+package it.polito.ai.virtualLabs.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.polito.ai.virtualLabs.metrics.CacheMetrics;
+import it.polito.ai.virtualLabs.repositories.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Component
+public class MembershipIndex implements MeterBinder {
+
+    @Autowired
+    UserRepository userRepository;
+    @Autowired
+    CourseRepository courseRepository;
+    @Autowired
+    TeamRepository teamRepository;
+    @Autowired
+    VmRepository vmRepository;
+    @Autowired
+    ReportRepository reportRepository;
+
+    //username -> id, only registered users are indexed
+    private final Map<String, String> userIds = new ConcurrentHashMap<>();
+    //userId -> names of the courses of a student or of a professor
+    private final Map<String, Set<String>> userCourses = new ConcurrentHashMap<>();
+    //studentId -> ids of the teams of the student
+    private final Map<String, Set<Long>> studentTeams = new ConcurrentHashMap<>();
+    //courseName -> ids and usernames of the enrolled students
+    private final Map<String, Set<String>> courseStudentIds = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> courseStudentUsernames = new ConcurrentHashMap<>();
+    //teamId -> course of the team, a team never changes course
+    private final Map<Long, String> teamCourses = new ConcurrentHashMap<>();
+    //vmId -> team and owners of the vm
+    private final Map<Long, Long> vmTeams = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> vmOwners = new ConcurrentHashMap<>();
+    //reportId -> {owner id, course name}, a report never changes owner or assignment
+    private final Map<Long, ReportRepository.OwnerIdAndCourseName> reports = new ConcurrentHashMap<>();
+
+    //bumped by every invalidation, so that a load that raced with it is not stored
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public Optional<String> getUserId(String username) {
+        return Optional.ofNullable(lookup(userIds, username, u -> userRepository.getRegisteredUserId(u).orElse(null)));
+    }
+
+    public boolean isInCourse(String userId, boolean professor, String courseName) {
+        return getCourses(userId, professor).contains(courseName);
+    }
+
+    public boolean sharesCourseWith(String userId, boolean professor, String studentId) {
+        return getCourses(userId, professor)
+                .stream()
+                .anyMatch(courseName -> getCourseStudentIds(courseName).contains(studentId));
+    }
+
+    public boolean canWriteTo(String professorId, Collection<String> usernames) {
+        return getCourses(professorId, true)
+                .stream()
+                .anyMatch(courseName -> lookup(courseStudentUsernames, courseName, this::loadCourseStudentUsernames).containsAll(usernames));
+    }
+
+    public boolean isTeamMember(String studentId, Long teamId) {
+        return lookup(studentTeams, studentId, id -> toSet(userRepository.getStudentTeamIds(id))).contains(teamId);
+    }
+
+    public Optional<String> getTeamCourse(Long teamId) {
+        if(teamId == null)
+            return Optional.empty();
+        return Optional.ofNullable(lookup(teamCourses, teamId, id -> teamRepository.getCourseName(id).orElse(null)));
+    }
+
+    public Optional<Long> getVmTeam(Long vmId) {
+        return Optional.ofNullable(lookup(vmTeams, vmId, id -> vmRepository.getTeamId(id).orElse(null)));
+    }
+
+    public boolean isVmOwner(String studentId, Long vmId) {
+        return lookup(vmOwners, vmId, id -> toSet(vmRepository.getOwnerIds(id))).contains(studentId);
+    }
+
+    public Optional<String> getReportOwner(Long reportId) {
+        return getReport(reportId).map(ReportRepository.OwnerIdAndCourseName::getOwnerId);
+    }
+
+    public Optional<String> getReportCourse(Long reportId) {
+        return getReport(reportId).map(ReportRepository.OwnerIdAndCourseName::getCourseName);
+    }
+
+    public void invalidateUser(String userId) {
+        invalidate(() -> {
+            userCourses.remove(userId);
+            studentTeams.remove(userId);
+        });
+    }
+
+    public void invalidateCourse(String courseName) {
+        invalidate(() -> {
+            courseStudentIds.remove(courseName);
+            courseStudentUsernames.remove(courseName);
+        });
+    }
+
+    public void invalidateTeam(Long teamId) {
+        invalidate(() -> teamCourses.remove(teamId));
+    }
+
+    public void invalidateVm(Long vmId) {
+        invalidate(() -> {
+            vmTeams.remove(vmId);
+            vmOwners.remove(vmId);
+        });
+    }
+
+    public void invalidateReport(Long reportId) {
+        invalidate(() -> reports.remove(reportId));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CacheMetrics.bind(registry, "memberships", hits, misses);
+    }
+
+    private Set<String> getCourses(String userId, boolean professor) {
+        return lookup(userCourses, userId, id -> toSet(professor ?
+                userRepository.getProfessorCourseNames(id) :
+                userRepository.getStudentCourseNames(id)));
+    }
+
+    private Set<String> getCourseStudentIds(String courseName) {
+        return lookup(courseStudentIds, courseName, name -> toSet(courseRepository.getStudentIdsAndUsernames(name)
+                .stream()
+                .map(CourseRepository.StudentIdAndUsername::getId)
+                .collect(Collectors.toList())));
+    }
+
+    private Set<String> loadCourseStudentUsernames(String courseName) {
+        return toSet(courseRepository.getStudentIdsAndUsernames(courseName)
+                .stream()
+                .map(CourseRepository.StudentIdAndUsername::getUsername)
+                .collect(Collectors.toList()));
+    }
+
+    private Optional<ReportRepository.OwnerIdAndCourseName> getReport(Long reportId) {
+        return Optional.ofNullable(lookup(reports, reportId, id -> reportRepository.getOwnerIdAndCourseName(id).orElse(null)));
+    }
+
+    private <K, V> V lookup(Map<K, V> map, K key, Function<K, V> loader) {
+        V value = map.get(key);
+        if(value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+        misses.incrementAndGet();
+
+        long loadedAt = generation.get();
+        value = loader.apply(key);
+        if(value != null && generation.get() == loadedAt)
+            map.putIfAbsent(key, value);
+        return value;
+    }
+
+    private <T> Set<T> toSet(List<T> values) {
+        return Collections.unmodifiableSet(new HashSet<>(values));
+    }
+
+    private void invalidate(Runnable eviction) {
+        generation.incrementAndGet();
+        eviction.run();
+
+        //evict again once the change is visible, entries loaded in the meantime may be stale
+        if(TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    generation.incrementAndGet();
+                    eviction.run();
+                }
+            });
+    }
+}
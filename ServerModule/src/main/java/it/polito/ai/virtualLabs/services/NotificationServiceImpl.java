@@ -2,8 +2,9 @@ package it.polito.ai.virtualLabs.services;
 
 import it.polito.ai.virtualLabs.dtos.ProfessorDTO;
 import it.polito.ai.virtualLabs.entities.*;
-import it.polito.ai.virtualLabs.repositories.CourseRepository;
+import it.polito.ai.virtualLabs.repositories.OutgoingMailRepository;
 import it.polito.ai.virtualLabs.repositories.TeamProposalRepository;
+import it.polito.ai.virtualLabs.repositories.TeamProposalTokenRepository;
 import it.polito.ai.virtualLabs.repositories.TeamRepository;
 import it.polito.ai.virtualLabs.repositories.UserRepository;
 import it.polito.ai.virtualLabs.services.exceptions.course.CourseNotEnabledException;
@@ -14,47 +15,50 @@ import it.polito.ai.virtualLabs.services.exceptions.student.StudentNotFoundExcep
 import it.polito.ai.virtualLabs.services.exceptions.team.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mail.MailException;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 
 import javax.mail.MessagingException;
-import javax.mail.internet.MimeMessage;
+import javax.mail.internet.InternetAddress;
 import javax.transaction.Transactional;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+
+import static it.polito.ai.virtualLabs.services.EntityLoader.teamProposalNotFound;
 
 @Service
 @Transactional
 public class NotificationServiceImpl implements NotificationService {
 
     @Autowired
-    JavaMailSender emailSender;
+    OutgoingMailRepository outgoingMailRepository;
+    @Autowired
+    TeamProposalTokenRepository teamProposalTokenRepository;
     @Autowired
     TeamRepository teamRepository;
     @Autowired
     TeamProposalRepository teamProposalRepository;
     @Autowired
-    CourseRepository courseRepository;
-    @Autowired
     UserRepository userRepository;
     @Autowired
     TeamService teamService;
     @Autowired
     AuthService authService;
+    @Autowired
+    MembershipIndex membershipIndex;
+    @Autowired
+    EntityLoader entityLoader;
 
     @Override
     public void sendMessage(String address, String subject, String body) throws MailException, MessagingException {
-        MimeMessage message = emailSender.createMimeMessage();
-        MimeMessageHelper helper = new MimeMessageHelper(message, "utf-8");
-        helper.setText(body, true);
-        helper.setTo(address);
-        helper.setSubject(subject);
-
-        emailSender.send(message);
+        new InternetAddress(address).validate();
+
+        //the mail is stored with the current transaction and sent in background by MailDispatcher
+        OutgoingMail mail = new OutgoingMail();
+        mail.setAddress(address);
+        mail.setSubject(subject);
+        mail.setBody(body);
+        outgoingMailRepository.save(mail);
     }
 
     @Override
@@ -73,15 +77,16 @@ public class NotificationServiceImpl implements NotificationService {
     }
 
     @Override
+    @RetryOnConflict
     public boolean acceptByToken(Long teamProposalId, String token) {
-        if(!teamProposalRepository.existsById(teamProposalId))
-            throw new TeamProposalNotFoundException("The proposal with id '" + teamProposalId + "' was not found");
+        //every acceptance changes the version, the last two tokens removed concurrently would both see the other one
+        TeamProposal tp = teamProposalRepository.findAndIncrementVersionById(teamProposalId)
+                .orElseThrow(() -> teamProposalNotFound(teamProposalId));
         Optional<Student> student = getStudentByToken(token);
         if(!student.isPresent())
             throw new StudentNotFoundException("The username inside the token '" + token + "' was not found");
 
         //check if any of the students is already teamed up in another team
-        TeamProposal tp = teamProposalRepository.getOne(teamProposalId);
         for(Student s : tp.getStudents()) {
             for(Team t : s.getTeams()) {
                 if(t.getCourse().getName().equals(tp.getCourse().getName())) {
@@ -101,10 +106,10 @@ public class NotificationServiceImpl implements NotificationService {
             return false;
 
         //remove token
-        tp.removeToken(token);
+        teamProposalTokenRepository.deleteById(token);
 
         //check if ALL students have accepted the team proposal
-        if(tp.getTokens().size() == 0) {
+        if(teamProposalTokenRepository.countByTeamProposalId(tp.getId()) == 0) {
             tp.setStatus(TeamProposal.TeamProposalStatus.CONFIRMED);
             tp.setStatusDesc("All students accepted the proposal");
 
@@ -113,8 +118,10 @@ public class NotificationServiceImpl implements NotificationService {
             team.setName(tp.getTeamName());
             team.setCourse(tp.getCourse());
             teamRepository.saveAndFlush(team);
-            for(Student s : tp.getStudents())
+            for(Student s : tp.getStudents()) {
                 s.addToTeam(team);
+                membershipIndex.invalidateUser(s.getId());
+            }
         } else
             tp.setStatusDesc("Other students must accept the proposal yet");
 
@@ -123,20 +130,19 @@ public class NotificationServiceImpl implements NotificationService {
     }
 
     @Override
+    @RetryOnConflict
     public boolean rejectByToken(Long teamProposalId, String token) {
-        if(!teamProposalRepository.existsById(teamProposalId))
-            throw new TeamProposalNotFoundException("The proposal with id '" + teamProposalId + "' was not found");
+        TeamProposal tp = entityLoader.loadTeamProposal(teamProposalId);
         Optional<Student> student = getStudentByToken(token);
         if(!student.isPresent())
             throw new StudentNotFoundException("The username inside the token '" + token + "' was not found");
 
         //check the team proposal
-        TeamProposal tp = teamProposalRepository.getOne(teamProposalId);
         if(!checkProposal(tp, token))
             return false;
 
-        //remove token
-        tp.getTokens().clear();
+        //remove tokens
+        teamProposalTokenRepository.deleteByTeamProposalId(tp.getId());
 
         //reject the team proposal and add status description
         tp.setStatus(TeamProposal.TeamProposalStatus.REJECTED);
@@ -148,6 +154,7 @@ public class NotificationServiceImpl implements NotificationService {
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
+    @RetryOnConflict
     public boolean acceptById(Long teamProposalId, String studentId) {
         String token = getTokenByStudentId(teamProposalId, studentId);
         return token != null && acceptByToken(teamProposalId, token);
@@ -155,6 +162,7 @@ public class NotificationServiceImpl implements NotificationService {
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
+    @RetryOnConflict
     public boolean rejectById(Long teamProposalId, String studentId) {
         String token = getTokenByStudentId(teamProposalId, studentId);
         return token != null && rejectByToken(teamProposalId, token);
@@ -164,33 +172,29 @@ public class NotificationServiceImpl implements NotificationService {
     public void notifyTeam(Long teamProposalId, List<String> studentIds) throws MessagingException {
         TeamProposal proposal = teamProposalRepository.getOne(teamProposalId);
         for(String id : studentIds) {
-            String username = userRepository.getStudentById(id).getUsername();
-            String token = hashToken(username);
+            Student student = userRepository.getStudentById(id);
+            String token = hashToken(student.getUsername());
 
-            sendMessage(username, "VirtualLabs Invitation", calcBody(teamProposalId, token));
-            proposal.addToken(token);
+            sendMessage(student.getUsername(), "VirtualLabs Invitation", calcBody(teamProposalId, token));
+            proposal.addToken(teamProposalTokenRepository.save(new TeamProposalToken(token, proposal, student)));
         }
     }
 
     private boolean rejectAllTeamProposalsExcept(Long teamProposalId, String courseName, String studentId) {
         // reject all that team proposals
-        for(Long proposalId : teamService.getPendingTeamProposalIdsForStudent(courseName, studentId)) {
-            if(!proposalId.equals(teamProposalId)) {
-                String token = getTokenByStudentId(proposalId, studentId);
-                if(token != null)
-                    if(!rejectByToken(proposalId, token))
-                        return false;
-            }
+        for(TeamProposalTokenRepository.ProposalToken proposalToken : teamProposalTokenRepository.getProposalTokensForStudent(studentId, courseName,
+                TeamProposal.TeamProposalStatus.PENDING)) {
+            Long proposalId = proposalToken.getTeamProposalId();
+            if(!proposalId.equals(teamProposalId))
+                if(!rejectByToken(proposalId, proposalToken.getToken()))
+                    return false;
         }
         return true;
     }
 
     @Override
     public String getTokenByStudentId(Long tpId, String studId) {
-        return teamProposalRepository.getOne(tpId).getTokens().stream().filter(t -> {
-            Optional<Student> s = getStudentByToken(t);
-            return s.isPresent() && s.get().getId().equals(studId);
-        }).findFirst().orElse(null);
+        return teamProposalTokenRepository.getToken(tpId, studId).orElse(null);
     }
 
     private String hashToken(String username) {
@@ -210,32 +214,25 @@ public class NotificationServiceImpl implements NotificationService {
             else
                 throw new TeamProposalRejectedException("The proposal with id '"+tp.getId()+"' was already rejected");
 
-        //check if the course exists
-        String courseName = tp.getCourse().getName();
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        //check if the course exists, it is loaded with the proposal
+        Course course = tp.getCourse();
+        if(course == null)
+            throw new CourseNotFoundException("The course of the proposal with id '" + tp.getId() + "' was not found");
+        String courseName = course.getName();
 
         //check if course is enabled
-        Course course = courseRepository.getOne(courseName);
         if(!course.isEnabled())
             throw new CourseNotEnabledException("The course named '" + courseName + "' is not enabled");
 
-        //check if student ids are duplicated or invalid
-        List<String> distinctStudentsId = tp.getStudents()
-                .stream()
-                .map(Student::getId)
-                .distinct()
-                .collect(Collectors.toList());
-        for(String studentId : distinctStudentsId) {
-            if(!userRepository.studentExistsById(studentId))
-                throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
-            Student student = userRepository.getStudentById(studentId);
-            if(!student.getCourses().contains(course))
-                throw new StudentNotEnrolledException("The student with id '" + studentId +"' is not enrolled to the course named '" + courseName +"'");
+        //check if the members are still enrolled, they are already loaded with the proposal
+        Set<String> checkedIds = new HashSet<>();
+        for(Student student : tp.getStudents()) {
+            if(checkedIds.add(student.getId()) && !student.getCourses().contains(course))
+                throw new StudentNotEnrolledException("The student with id '" + student.getId() +"' is not enrolled to the course named '" + courseName +"'");
         }
 
         //check if token exists
-        if(!tp.getTokens().contains(token))
+        if(!teamProposalTokenRepository.existsByTokenAndTeamProposalId(token, tp.getId()))
             throw new TokenNotFoundException("The token '" + token + "' was not found");
 
         return true;
@@ -253,8 +250,6 @@ public class NotificationServiceImpl implements NotificationService {
     }
 
     public Optional<Student> getStudentByToken(String token) {
-        String username = new String(Base64.getDecoder().decode(token)).split("\\|")[1];
-        Student s = userRepository.getStudentByUsername(username);
-        return s != null ? Optional.of(s) : Optional.empty();
+        return teamProposalTokenRepository.getStudentByToken(token);
     }
 }
@@ -0,0 +1,14 @@
+package it.polito.ai.virtualLabs.services;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//the method runs again in a new transaction when it loses an optimistic lock against a concurrent one
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RetryOnConflict {
+    //an attempt is lost only when another writer commits, so up to this many concurrent writers of a row all succeed
+    int attempts() default 5;
+}
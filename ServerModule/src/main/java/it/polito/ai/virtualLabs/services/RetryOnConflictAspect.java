@@ -0,0 +1,61 @@
+package it.polito.ai.virtualLabs.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.polito.ai.virtualLabs.services.exceptions.ConcurrentUpdateException;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+//right inside the metrics aspect and outside the transaction, so that every attempt commits or rolls back on its own
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class RetryOnConflictAspect {
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${retry-on-conflict.backoff-millis:10}")
+    private long backoffMillis = 10;
+
+    @Around("@annotation(retryOnConflict)")
+    public Object retry(ProceedingJoinPoint joinPoint, RetryOnConflict retryOnConflict) throws Throwable {
+        //called by another transaction: only the caller can start again from a clean persistence context
+        if(TransactionSynchronizationManager.isActualTransactionActive())
+            return joinPoint.proceed();
+
+        for(int attempt = 1; ; attempt++) {
+            try {
+                return joinPoint.proceed();
+            } catch (OptimisticLockingFailureException ex) {
+                if(attempt >= retryOnConflict.attempts()) {
+                    conflicts(joinPoint, "exhausted").increment();
+                    throw new ConcurrentUpdateException("Concurrent updates, " + joinPoint.getSignature().getName() +
+                            " gave up after " + attempt + " attempts", ex);
+                }
+                conflicts(joinPoint, "retried").increment();
+
+                //random backoff growing with the attempts, so that the same transactions do not collide again
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMillis * attempt + 1));
+            }
+        }
+    }
+
+    private Counter conflicts(ProceedingJoinPoint joinPoint, String outcome) {
+        return Counter.builder("service.method.conflicts")
+                .tag("class", joinPoint.getSignature().getDeclaringType().getSimpleName())
+                .tag("method", joinPoint.getSignature().getName())
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
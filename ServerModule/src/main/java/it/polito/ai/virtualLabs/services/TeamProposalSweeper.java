@@ -0,0 +1,96 @@
+package it.polito.ai.virtualLabs.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.polito.ai.virtualLabs.repositories.TeamProposalRepository;
+import it.polito.ai.virtualLabs.repositories.TeamProposalTokenRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class TeamProposalSweeper implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(TeamProposalSweeper.class);
+
+    private static final int BATCH_SIZE = 500;
+    private static final long SWEEP_DELAY_MILLIS = 10 * 60 * 1000;
+    private static final long INITIAL_DELAY_MILLIS = 60 * 1000;
+
+    @Autowired
+    TeamProposalRepository teamProposalRepository;
+    @Autowired
+    TeamProposalTokenRepository teamProposalTokenRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    private final AtomicLong sweptProposals = new AtomicLong();
+    private final AtomicLong sweepErrors = new AtomicLong();
+    private final AtomicLong lastSweepMillis = new AtomicLong();
+    private final AtomicLong lastSweepDuration = new AtomicLong();
+
+    public static LocalDateTime expiredBefore(LocalDateTime now) {
+        return now.minusDays(TeamServiceImpl.TEAM_PROPOSAL_EXPIRY_DAYS);
+    }
+
+    @Scheduled(initialDelay = INITIAL_DELAY_MILLIS, fixedDelay = SWEEP_DELAY_MILLIS)
+    public void sweep() {
+        long start = System.currentTimeMillis();
+        LocalDateTime expiredBefore = expiredBefore(LocalDateTime.now());
+        try {
+            //every batch is a short transaction, so that the sweep never holds locks on the whole table
+            int deleted;
+            do {
+                deleted = transactionTemplate.execute(status -> deleteBatch(expiredBefore));
+                sweptProposals.addAndGet(deleted);
+            } while(deleted == BATCH_SIZE);
+        } catch (RuntimeException ex) {
+            //the next sweep starts again from the oldest proposals
+            sweepErrors.incrementAndGet();
+            log.warn("Sweep of the team proposals expired before {} failed", expiredBefore, ex);
+        } finally {
+            lastSweepMillis.set(System.currentTimeMillis());
+            lastSweepDuration.set(System.currentTimeMillis() - start);
+        }
+    }
+
+    private int deleteBatch(LocalDateTime expiredBefore) {
+        List<Long> ids = teamProposalRepository.getExpiredIds(expiredBefore, PageRequest.of(0, BATCH_SIZE));
+        if(ids.isEmpty())
+            return 0;
+
+        //children first: tokens and memberships reference the proposals
+        teamProposalTokenRepository.deleteByTeamProposalIdIn(ids);
+        //memberships are removed through the owning collection, so their rows go out as one jdbc batch
+        teamProposalRepository.findWithStudentsByIdIn(ids).forEach(tp -> tp.getStudents().clear());
+        teamProposalRepository.flush();
+        teamProposalRepository.deleteByIdIn(ids);
+        return ids.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("team-proposals.swept", sweptProposals, AtomicLong::get)
+                .description("Expired team proposals deleted by the sweeper")
+                .register(registry);
+        FunctionCounter.builder("team-proposals.sweep.errors", sweepErrors, AtomicLong::get)
+                .register(registry);
+        Gauge.builder("team-proposals.sweep.last", lastSweepMillis, AtomicLong::get)
+                .description("Time of the last sweep, in milliseconds since the epoch")
+                .register(registry);
+        Gauge.builder("team-proposals.sweep.duration", lastSweepDuration, AtomicLong::get)
+                .description("Duration of the last sweep, in milliseconds")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+}
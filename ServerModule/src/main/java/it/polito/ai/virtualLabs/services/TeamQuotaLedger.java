@@ -0,0 +1,143 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.entities.VmModel;
+import it.polito.ai.virtualLabs.repositories.VmRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+@Component
+public class TeamQuotaLedger {
+
+    private static final long RECONCILE_DELAY_MILLIS = 5 * 60 * 1000L;
+
+    @Autowired
+    VmRepository vmRepository;
+
+    //teamId -> resources used by the vms of the team, including reservations not yet committed
+    private final Map<Long, AtomicReference<Usage>> ledger = new ConcurrentHashMap<>();
+
+    private static final class Usage {
+        private static final Usage EMPTY = new Usage(0, 0, 0, 0, 0);
+
+        private final long vCPU;
+        private final long ram;
+        private final long disk;
+        private final long vms;
+        private final int pending;
+
+        private Usage(long vCPU, long ram, long disk, long vms, int pending) {
+            this.vCPU = vCPU;
+            this.ram = ram;
+            this.disk = disk;
+            this.vms = vms;
+            this.pending = pending;
+        }
+
+        private Usage add(long vCPU, long ram, long disk, long vms, int pending) {
+            return new Usage(this.vCPU + vCPU, this.ram + ram, this.disk + disk, this.vms + vms, this.pending + pending);
+        }
+
+        private boolean fits(VmModel vmModel) {
+            return vCPU <= vmModel.getMaxVCPU() && ram <= vmModel.getMaxRAM() &&
+                    disk <= vmModel.getMaxDisk() && vms <= vmModel.getMaxTotVm();
+        }
+    }
+
+    public boolean reserve(Long teamId, VmModel vmModel, int vCPU, int ram, int disk, int vms) {
+        AtomicReference<Usage> usageRef = usage(teamId);
+        Usage cur, next;
+        do {
+            cur = usageRef.get();
+            next = cur.add(vCPU, ram, disk, vms, 1);
+            //releasing resources is always allowed
+            if((vCPU > 0 || ram > 0 || disk > 0 || vms > 0) && !next.fits(vmModel))
+                return false;
+        } while(!usageRef.compareAndSet(cur, next));
+
+        //the reservation is undone if the transaction that made it does not commit
+        afterCompletion(committed -> {
+            if(committed)
+                usageRef.updateAndGet(u -> u.add(0, 0, 0, 0, -1));
+            else
+                usageRef.updateAndGet(u -> u.add(-vCPU, -ram, -disk, -vms, -1));
+        });
+        return true;
+    }
+
+    public void release(Long teamId, int vCPU, int ram, int disk, int vms) {
+        AtomicReference<Usage> usageRef = ledger.get(teamId);
+        if(usageRef == null)
+            return;
+
+        //pending until the outcome is known, so reconcile does not replace it with totals that already exclude the vm
+        usageRef.updateAndGet(u -> u.add(0, 0, 0, 0, 1));
+        afterCompletion(committed -> {
+            if(committed)
+                usageRef.updateAndGet(u -> u.add(-vCPU, -ram, -disk, -vms, -1));
+            else
+                usageRef.updateAndGet(u -> u.add(0, 0, 0, 0, -1));
+        });
+    }
+
+    public void evict(Long teamId) {
+        afterCompletion(committed -> ledger.remove(teamId));
+    }
+
+    @Scheduled(fixedDelay = RECONCILE_DELAY_MILLIS, initialDelay = RECONCILE_DELAY_MILLIS)
+    public void reconcile() {
+        //snapshots are taken before reading the db, so a concurrent change makes the replacement fail
+        Map<Long, Usage> snapshots = new HashMap<>();
+        ledger.forEach((teamId, usageRef) -> {
+            Usage usage = usageRef.get();
+            if(usage.pending == 0)
+                snapshots.put(teamId, usage);
+        });
+        if(snapshots.isEmpty())
+            return;
+
+        Map<Long, Usage> stored = new HashMap<>();
+        vmRepository.getResourcesUsedByTeams().forEach(row -> stored.put(row.getTeamId(), toUsage(row)));
+
+        snapshots.forEach((teamId, snapshot) -> {
+            AtomicReference<Usage> usageRef = ledger.get(teamId);
+            if(usageRef != null)
+                usageRef.compareAndSet(snapshot, stored.getOrDefault(teamId, Usage.EMPTY));
+        });
+    }
+
+    private AtomicReference<Usage> usage(Long teamId) {
+        return ledger.computeIfAbsent(teamId, id ->
+                new AtomicReference<>(vmRepository.getResourcesUsedByTeam(id).map(this::toUsage).orElse(Usage.EMPTY)));
+    }
+
+    private Usage toUsage(VmRepository.ResourcesUsed row) {
+        return new Usage(toLong(row.getUsedVCPU()), toLong(row.getUsedRAM()), toLong(row.getUsedDisk()), row.getVmCount(), 0);
+    }
+
+    private long toLong(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    private void afterCompletion(Consumer<Boolean> callback) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            callback.accept(true);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                callback.accept(status == STATUS_COMMITTED);
+            }
+        });
+    }
+}
@@ -3,20 +3,33 @@ package it.polito.ai.virtualLabs.services;
 import it.polito.ai.virtualLabs.dtos.*;
 
 import javax.mail.MessagingException;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface TeamService {
 
+    enum EnrollmentOutcome {
+        ENROLLED,
+        ALREADY_ENROLLED,
+        UNENROLLED,
+        NOT_ENROLLED,
+        UNREGISTERED,
+        NOT_FOUND
+    }
+
     boolean addCourse(CourseDTO course, String professorUsername);
     Optional<CourseDTO> getCourse(String name);
+    CourseDashboardDTO getCourseDashboard(String courseName);
     List<CourseDTO> getAllCourses();
     StudentDTO addStudent(StudentDTO student);
     List<StudentDTO> addAllStudents(List<StudentDTO> students);
     Optional<StudentDTO> getStudent(String studentId);
     Optional<StudentDTO> getStudentByUsername(String username);
-    List<StudentDTO> getAllStudents();
+    List<StudentDTO> getAllStudents(String afterId, int limit);
     boolean addProfessor(ProfessorDTO professor);
     List<Boolean> addAllProfessors(List<ProfessorDTO> professors);
     Optional<ProfessorDTO> getProfessor(String professorId);
@@ -57,11 +70,13 @@ public interface TeamService {
     void enableCourse(String courseName);
     void disableCourse(String courseName);
     List<StudentDTO> enrollAllStudents(List<String> studentIds, String courseName);
-    String checkCsv(Reader r, String courseName);
+    Map<String, EnrollmentOutcome> enrollStudents(List<String> studentIds, String courseName);
+    Map<String, EnrollmentOutcome> unenrollStudents(List<String> studentIds, String courseName);
+    Path checkCsv(Reader r, String courseName) throws IOException;
     List<CourseDTO> getCoursesForStudent(String studentId);
     List<CourseDTO> getCoursesForProfessor(String professorId);
     Optional<CourseDTO> getCourseForTeam(Long teamId);
-    List<StudentDTO> getStudentsNotInCourse(String courseName);
+    List<StudentDTO> getStudentsNotInCourse(String courseName, String afterId, int limit);
     List<TeamProposalDTO> cleanTeamProposals(List<TeamProposalDTO> list);
     List<CourseDTO> enrichCourses(List<CourseDTO> courses);
 }
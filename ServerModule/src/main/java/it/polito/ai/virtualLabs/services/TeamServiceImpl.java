@@ -7,27 +7,34 @@ import it.polito.ai.virtualLabs.dtos.*;
 import it.polito.ai.virtualLabs.entities.*;
 import it.polito.ai.virtualLabs.repositories.*;
 import it.polito.ai.virtualLabs.services.exceptions.course.CourseNotEnabledException;
-import it.polito.ai.virtualLabs.services.exceptions.course.CourseNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.file.ParsingFileException;
 import it.polito.ai.virtualLabs.services.exceptions.professor.ProfessorNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.student.*;
 import it.polito.ai.virtualLabs.services.exceptions.team.*;
 import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
-import org.modelmapper.ModelMapper;
+import net.minidev.json.JSONValue;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
 import javax.mail.MessagingException;
 import javax.transaction.Transactional;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import static it.polito.ai.virtualLabs.services.EntityLoader.*;
+
 
 @Service
 @Transactional
@@ -43,8 +50,9 @@ public class TeamServiceImpl implements TeamService {
     private static final int PROPOSAL_EXPIRATION_DAYS = 3;
     private static final int MIN_SIZE_FOR_GROUP = 2;
     private static final int MAX_SIZE_FOR_GROUP = 10;
-    private static final int TEAM_PROPOSAL_EXPIRY_DAYS = 30;
-    private static final String RESOURCES_PATH = "/home/files/course_info/";
+    static final int TEAM_PROPOSAL_EXPIRY_DAYS = 30;
+    private static final int CSV_CHUNK_SIZE = 500;
+    private static final int ENROLLMENT_BATCH_SIZE = 500;
 
     @Autowired
     AssignmentRepository assignmentRepository;
@@ -71,13 +79,29 @@ public class TeamServiceImpl implements TeamService {
     @Autowired
     NotificationService notificationService;
     @Autowired
-    ModelMapper modelMapper;
+    DtoMapper dtoMapper;
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+    @Autowired
+    VmStateRegistry vmStateRegistry;
+    @Autowired
+    TeamQuotaLedger teamQuotaLedger;
+    @Autowired
+    EntityLoader entityLoader;
+    @Autowired
+    MembershipIndex membershipIndex;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TeamProposalTokenRepository teamProposalTokenRepository;
+    @Autowired
+    CourseInfoStore courseInfoStore;
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean addCourse(CourseDTO course, String professorUsername) {
-        if(!userRepository.professorExistsByUsername(professorUsername))
-            throw new ProfessorNotFoundException("The professor with username '" + professorUsername + "' was not found");
+        Professor professor = userRepository.findProfessorByUsername(professorUsername)
+                .orElseThrow(() -> new ProfessorNotFoundException("The professor with username '" + professorUsername + "' was not found"));
 
         if(courseRepository.existsById(course.getName()) ||
                 course.getMinTeamSize() < MIN_SIZE_FOR_GROUP ||
@@ -86,72 +110,146 @@ public class TeamServiceImpl implements TeamService {
             return false;
 
         try {
-            File newCourseInfo = new File(RESOURCES_PATH + course.getName() + ".txt");
-            FileOutputStream stream = new FileOutputStream(newCourseInfo);
-            stream.write(course.getInfo().getBytes());
-            stream.close();
+            courseInfoStore.write(course.getName(), course.getInfo());
         } catch (IOException ex) {
             return false;
         }
 
-        Professor professor = userRepository.getProfessorByUsername(professorUsername);
-
-        Course c = modelMapper.map(course, Course.class);
+        Course c = dtoMapper.toCourse(course);
         c.addProfessor(professor);
 
         courseRepository.saveAndFlush(c);
+        membershipIndex.invalidateUser(professor.getId());
         return true;
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Optional<CourseDTO> getCourse(String name) {
-        if (!courseRepository.existsById(name))
-            return Optional.empty();
         return courseRepository.findById(name)
-                .map(c -> modelMapper.map(c, CourseDTO.class));
+                .map(c -> dtoMapper.toCourseDTO(c));
+    }
+
+    @Override
+    public CourseDashboardDTO getCourseDashboard(String courseName) {
+        CourseRepository.DashboardCourse c = courseRepository.getDashboardCourse(courseName)
+                .orElseThrow(() -> courseNotFound(courseName));
+
+        authService.checkAuthorizationForCourse(courseName);
+
+        CourseDashboardDTO dashboard = new CourseDashboardDTO();
+
+        CourseDTO course = new CourseDTO();
+        course.setName(c.getName());
+        course.setAcronym(c.getAcronym());
+        course.setMinTeamSize(c.getMinTeamSize());
+        course.setMaxTeamSize(c.getMaxTeamSize());
+        course.setEnabled(c.isEnabled());
+        course.setInfo(courseInfoStore.get(courseName));
+        dashboard.setCourse(course);
+
+        courseRepository.getDashboardProfessors(courseName).forEach(p ->
+                dashboard.getProfessors().add(toUserDTO(p, new ProfessorDTO())));
+
+        //enrolled students are visible only to professors, as in getEnrolledStudents
+        if(SecurityContextHolder.getContext().getAuthentication().getAuthorities()
+                .stream()
+                .anyMatch(role -> role.getAuthority().equals("ROLE_PROFESSOR")))
+            courseRepository.getDashboardStudents(courseName).forEach(s ->
+                    dashboard.getEnrolled().add(toUserDTO(s, new StudentDTO())));
+
+        courseRepository.getDashboardTeams(courseName).forEach(t -> {
+            TeamDTO team = new TeamDTO();
+            team.setId(t.getId());
+            team.setName(t.getName());
+            dashboard.getTeams().add(team);
+        });
+
+        //expired proposals are left out, as in cleanTeamProposals
+        courseRepository.getDashboardTeamProposals(courseName, TeamProposalSweeper.expiredBefore(LocalDateTime.now())).forEach(tp -> {
+            TeamProposalDTO teamProposal = new TeamProposalDTO();
+            teamProposal.setId(tp.getId());
+            teamProposal.setExpiryDate(tp.getExpiryDate());
+            teamProposal.setTeamName(tp.getTeamName());
+            teamProposal.setStatus(tp.getStatus());
+            teamProposal.setStatusDesc(tp.getStatusDesc());
+            teamProposal.setCreatorId(tp.getCreatorId());
+            dashboard.getTeamProposals().add(teamProposal);
+        });
+
+        courseRepository.getDashboardAssignments(courseName).forEach(a -> {
+            AssignmentDTO assignment = new AssignmentDTO();
+            assignment.setId(a.getId());
+            assignment.setName(a.getName());
+            assignment.setReleaseDate(a.getReleaseDate());
+            assignment.setExpiryDate(a.getExpiryDate());
+            assignment.setContent(a.getContent());
+            dashboard.getAssignments().add(assignment);
+        });
+
+        courseRepository.getDashboardVmModel(courseName).ifPresent(m -> {
+            VmModelDTO vmModel = new VmModelDTO();
+            vmModel.setId(m.getId());
+            vmModel.setName(m.getName());
+            vmModel.setOs(m.getOs());
+            vmModel.setMaxVCPU(m.getMaxVCPU());
+            vmModel.setMaxDisk(m.getMaxDisk());
+            vmModel.setMaxRAM(m.getMaxRAM());
+            vmModel.setMaxTotVm(m.getMaxTotVm());
+            vmModel.setMaxActiveVm(m.getMaxActiveVm());
+            dashboard.setVmModel(vmModel);
+        });
+
+        return dashboard;
+    }
+
+    private <T extends UserDTO> T toUserDTO(CourseRepository.DashboardUser row, T user) {
+        user.setId(row.getId());
+        user.setUsername(row.getUsername());
+        user.setName(row.getName());
+        user.setSurname(row.getSurname());
+        user.setPhoto(row.getPhoto());
+        return user;
     }
 
     @Override
     public List<CourseDTO> getAllCourses() {
         return courseRepository.findAll()
                 .stream()
-                .map(c -> modelMapper.map(c, CourseDTO.class))
+                .map(c -> dtoMapper.toCourseDTO(c))
                 .collect(Collectors.toList());
     }
 
     @Override
     public StudentDTO addStudent(StudentDTO student) {
         student.setPhoto(Base64.getEncoder().withoutPadding().encodeToString(String.valueOf(System.currentTimeMillis()).getBytes()));
-        Student s = modelMapper.map(student, Student.class);
+        Student s = dtoMapper.toStudent(student);
         userRepository.saveAndFlush(s);
         return student;
     }
 
     @Override
     public Optional<StudentDTO> getStudent(String studentId) {
-        if (!userRepository.studentExistsById(studentId))
+        Optional<Student> studentOpt = userRepository.findStudentById(studentId);
+        if (!studentOpt.isPresent())
             return Optional.empty();
 
         authService.checkAuthorizationForStudentInfo(studentId);
 
-        return userRepository.findStudentById(studentId)
-                .map(s -> modelMapper.map(s, StudentDTO.class));
+        return studentOpt.map(s -> dtoMapper.toStudentDTO(s));
     }
 
     @Override
     public Optional<StudentDTO> getStudentByUsername(String username) {
-        if (!userRepository.studentExistsByUsername(username))
-            return Optional.empty();
         return userRepository.findStudentByUsername(username)
-                .map(s -> modelMapper.map(s, StudentDTO.class));
+                .map(s -> dtoMapper.toStudentDTO(s));
     }
 
     @Override
-    public List<StudentDTO> getAllStudents() {
-        return userRepository.findAllStudents()
+    public List<StudentDTO> getAllStudents(String afterId, int limit) {
+        return userRepository.findAllStudents(afterId != null ? afterId : "", PageRequest.of(0, limit))
                 .stream()
-                .map(s -> modelMapper.map(s, StudentDTO.class))
+                .map(s -> dtoMapper.toStudentDTO(s))
                 .collect(Collectors.toList());
     }
 
@@ -159,7 +257,7 @@ public class TeamServiceImpl implements TeamService {
     public boolean addProfessor(ProfessorDTO professor) {
         if(userRepository.professorExistsById(professor.getId()))
             return false;
-        Professor p = modelMapper.map(professor, Professor.class);
+        Professor p = dtoMapper.toProfessor(professor);
         userRepository.saveAndFlush(p);
         return true;
     }
@@ -167,22 +265,20 @@ public class TeamServiceImpl implements TeamService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Optional<ProfessorDTO> getProfessor(String professorId) {
-        if (!userRepository.professorExistsById(professorId))
+        Optional<Professor> professorOpt = userRepository.findProfessorById(professorId);
+        if (!professorOpt.isPresent())
             return Optional.empty();
 
         authService.checkIdentity(professorId);
 
-        return userRepository.findProfessorById(professorId)
-                .map(p -> modelMapper.map(p, ProfessorDTO.class));
+        return professorOpt.map(p -> dtoMapper.toProfessorDTO(p));
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public Optional<ProfessorDTO> getProfessorByUsername(String username) {
-        if (!userRepository.professorExistsByUsername(username))
-            return Optional.empty();
         return userRepository.findProfessorByUsername(username)
-                .map(p -> modelMapper.map(p, ProfessorDTO.class));
+                .map(p -> dtoMapper.toProfessorDTO(p));
     }
 
     @Override
@@ -190,75 +286,63 @@ public class TeamServiceImpl implements TeamService {
     public List<ProfessorDTO> getAllProfessors() {
         return userRepository.findAllProfessors()
                 .stream()
-                .map(p -> modelMapper.map(p, ProfessorDTO.class))
+                .map(p -> dtoMapper.toProfessorDTO(p))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     public Optional<TeamDTO> getTeamForCourse(String teamName, String courseName) {
-        if (!teamRepository.existsByNameAndCourseName(teamName, courseName))
+        Optional<Team> teamOpt = teamRepository.findByNameAndCourseName(teamName, courseName);
+        if (!teamOpt.isPresent())
             return Optional.empty();
 
         authService.checkAuthorizationForCourse(courseName);
 
-        return teamRepository.findByNameAndCourseName(teamName, courseName)
-                .map(t -> modelMapper.map(t, TeamDTO.class));
+        return teamOpt.map(t -> dtoMapper.toTeamDTO(t));
     }
 
     @Override
     public Optional<TeamDTO> getTeam(Long teamId) {
-        if (!teamRepository.existsById(teamId))
-            return Optional.empty();
         return teamRepository.findById(teamId)
-                .map(t -> modelMapper.map(t, TeamDTO.class));
+                .map(t -> dtoMapper.toTeamDTO(t));
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public List<StudentDTO> getEnrolledStudents(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-
-        return courseRepository.getOne(courseName).getStudents()
+        return courseRepository.findWithStudentsByName(courseName)
+                .orElseThrow(() -> courseNotFound(courseName))
+                .getStudents()
                 .stream()
-                .map(s -> modelMapper.map(s, StudentDTO.class))
+                .map(s -> dtoMapper.toStudentDTO(s))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
-    public List<StudentDTO> getStudentsNotInCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+    public List<StudentDTO> getStudentsNotInCourse(String courseName, String afterId, int limit) {
+        entityLoader.checkCourseExists(courseName);
 
-        return userRepository.getStudentsNotInCourse(courseName)
+        return userRepository.getStudentsNotInCourse(courseName, afterId != null ? afterId : "", PageRequest.of(0, limit))
                 .stream()
-                .map(s -> modelMapper.map(s, StudentDTO.class))
+                .map(s -> dtoMapper.toStudentDTO(s))
                 .collect(Collectors.toList());
     }
 
     public List<TeamProposalDTO> cleanTeamProposals(List<TeamProposalDTO> list) {
-        for(TeamProposalDTO tp : list) {
-            if(tp.getExpiryDate().isBefore(LocalDateTime.now().minusDays(TEAM_PROPOSAL_EXPIRY_DAYS))) {
-                teamService.deleteTeamProposal(tp.getId());
-                tp.setId(null);
-            }
-        }
-        return list.stream().filter(tp -> tp.getId() != null).collect(Collectors.toList());
+        //expired proposals are hidden here and deleted in background by the TeamProposalSweeper
+        LocalDateTime expiredBefore = TeamProposalSweeper.expiredBefore(LocalDateTime.now());
+        return list.stream()
+                .filter(tp -> !tp.getExpiryDate().isBefore(expiredBefore))
+                .collect(Collectors.toList());
     }
 
     @Override
     public List<CourseDTO> enrichCourses(List<CourseDTO> courses) {
         for(CourseDTO c: courses) {
             ModelHelper.enrich(c);
-            String courseInfo = "";
-            try {
-                courseInfo = new String(Files.readAllBytes(Paths.get(RESOURCES_PATH + c.getName() + ".txt")));
-            } catch (Exception ex) {
-                courseInfo = "";
-            }
-            c.setInfo(courseInfo);
+            c.setInfo(courseInfoStore.get(c.getName()));
         }
         return courses;
     }
@@ -266,23 +350,18 @@ public class TeamServiceImpl implements TeamService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean addStudentToCourse(String studentId, String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+        Course course = courseRepository.findWithStudentsByName(courseName)
+                .orElseThrow(() -> courseNotFound(courseName));
+        Student s = entityLoader.loadStudent(studentId);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        Course course = courseRepository.getOne(courseName);
-        Optional<Student> student = course.getStudents()
-                .stream()
-                .filter(s -> s.getId().equals(studentId))
-                .findFirst();
-        if(student.isPresent())
+        if(course.getStudents().contains(s))
             return false;
         else {
-            Student s = userRepository.getStudentById(studentId);
             course.addStudent(s);
+            membershipIndex.invalidateUser(studentId);
+            membershipIndex.invalidateCourse(courseName);
             return true;
         }
     }
@@ -290,96 +369,80 @@ public class TeamServiceImpl implements TeamService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public void removeStudentFromCourse(String studentId, String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+        Course course = entityLoader.loadCourse(courseName);
+        Student student = entityLoader.loadStudent(studentId);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        Course course = courseRepository.getOne(courseName);
-        course.removeStudent(userRepository.getStudentById(studentId));
+        course.removeStudent(student);
+        membershipIndex.invalidateUser(studentId);
+        membershipIndex.invalidateCourse(courseName);
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public void removeStudentFromTeamByCourse(String studentId, String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+        entityLoader.checkCourseExists(courseName);
+        Student student = entityLoader.loadStudent(studentId);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        Student student = userRepository.getStudentById(studentId);
         Optional<Team> team = teamRepository.findByStudentsContainsAndCourseName(student, courseName);
 
         if(team.isPresent()) {
             team.get().removeMember(student);
-            if(team.get().getStudents().isEmpty())
+            membershipIndex.invalidateUser(studentId);
+            if(team.get().getStudents().isEmpty()) {
+                releaseTeam(team.get());
                 this.teamRepository.delete(team.get());
+            }
         }
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean addProfessorToCourse(String professorId, String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' non è stato trovato");
-        if(!userRepository.professorExistsById(professorId))
-            throw new ProfessorNotFoundException("The professor with id '" + professorId + "' was not found");
+        Course course = courseRepository.findWithProfessorsByName(courseName)
+                .orElseThrow(() -> courseNotFound(courseName));
+        Professor p = entityLoader.loadProfessor(professorId);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        Course course = courseRepository.getOne(courseName);
-        Optional<Professor> professor = course.getProfessors()
-                .stream()
-                .filter(p -> p.getId().equals(professorId))
-                .findFirst();
-        if(professor.isPresent())
+        if(course.getProfessors().contains(p))
             return false;
         else {
-            Professor p = userRepository.getProfessorById(professorId);
             course.addProfessor(p);
+            membershipIndex.invalidateUser(professorId);
             return true;
         }
     }
 
     @Override
     public void removeProfessorFromCourse(String professorId, String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-        if(!userRepository.professorExistsById(professorId))
-            throw new ProfessorNotFoundException("The professor with id '" + professorId + "' was not found");
-
-        Course course = courseRepository.getOne(courseName);
-        course.removeProfessor(userRepository.getProfessorById(professorId));
+        Course course = entityLoader.loadCourse(courseName);
+        course.removeProfessor(entityLoader.loadProfessor(professorId));
+        membershipIndex.invalidateUser(professorId);
     }
 
     @Override
     public List<ProfessorDTO> getProfessorsForCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-
-        return courseRepository.getOne(courseName).getProfessors()
+        return courseRepository.findWithProfessorsByName(courseName)
+                .orElseThrow(() -> courseNotFound(courseName))
+                .getProfessors()
                 .stream()
-                .map(p -> modelMapper.map(p, ProfessorDTO.class))
+                .map(p -> dtoMapper.toProfessorDTO(p))
                 .collect(Collectors.toList());
     }
 
     @Override
     public void enableCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-        Course c = courseRepository.getOne(courseName);
+        Course c = entityLoader.loadCourse(courseName);
         c.setEnabled(true);
     }
 
     @Override
     public void disableCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
-        Course c = courseRepository.getOne(courseName);
+        Course c = entityLoader.loadCourse(courseName);
         c.setEnabled(false);
     }
 
@@ -404,28 +467,25 @@ public class TeamServiceImpl implements TeamService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public List<StudentDTO> enrollAllStudents(List<String> studentIds, String courseName) {
-        authService.checkAuthorizationForCourse(courseName);
+        Map<String, EnrollmentOutcome> outcomes = teamService.enrollStudents(studentIds, courseName);
 
-        List<StudentDTO> studentsAdded = new ArrayList<>();
-        boolean warning = false;
+        List<String> enrolledIds = outcomes.entrySet()
+                .stream()
+                .filter(e -> e.getValue() == EnrollmentOutcome.ENROLLED)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        Map<String, Student> enrolled = new HashMap<>();
+        for(int i = 0; i < enrolledIds.size(); i += ENROLLMENT_BATCH_SIZE)
+            userRepository.getStudentsById(enrolledIds.subList(i, Math.min(i + ENROLLMENT_BATCH_SIZE, enrolledIds.size())))
+                    .forEach(s -> enrolled.put(s.getId(), s));
 
-        for(String id : studentIds) {
-            try {
-                Optional<Student> studentOpt = userRepository.findStudentById(id);
-                if(studentOpt.isPresent() && studentOpt.get().isRegistered()) {
-                    boolean enrolled = addStudentToCourse(id, courseName);
-                    if(enrolled) {
-                        studentsAdded.add(getStudent(id).get());
-                    }
-                } else {
-                    warning = true;
-                }
-            } catch (StudentNotFoundException ex) {
-                warning = true;
-            }
-        }
+        List<StudentDTO> studentsAdded = outcomes.keySet()
+                .stream()
+                .filter(enrolled::containsKey)
+                .map(id -> dtoMapper.toStudentDTO(enrolled.get(id)))
+                .collect(Collectors.toList());
 
-        if(warning)
+        if(outcomes.containsValue(EnrollmentOutcome.UNREGISTERED) || outcomes.containsValue(EnrollmentOutcome.NOT_FOUND))
             studentsAdded.add(new StudentDTO()); // last element will be a students with null id
 
         for(StudentDTO s : studentsAdded)
@@ -435,135 +495,260 @@ public class TeamServiceImpl implements TeamService {
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
-    public String checkCsv(Reader r, String courseName) {
+    public Map<String, EnrollmentOutcome> enrollStudents(List<String> studentIds, String courseName) {
+        entityLoader.checkCourseExists(courseName);
+
+        authService.checkAuthorizationForCourse(courseName);
+
+        // diff the requested ids against the current enrollments
+        Set<String> enrolledIds = new HashSet<>(courseRepository.getEnrolledStudentIds(courseName));
+        Map<String, EnrollmentOutcome> outcomes = new LinkedHashMap<>();
+        List<String> distinctIds = studentIds.stream().distinct().collect(Collectors.toList());
+        for(int i = 0; i < distinctIds.size(); i += ENROLLMENT_BATCH_SIZE) {
+            List<String> chunk = distinctIds.subList(i, Math.min(i + ENROLLMENT_BATCH_SIZE, distinctIds.size()));
+            Map<String, Boolean> registered = new HashMap<>();
+            userRepository.getStudentRegistrations(chunk).forEach(row -> registered.put(row.getId(), row.isRegistered()));
+
+            for(String id : chunk) {
+                if(!registered.containsKey(id))
+                    outcomes.put(id, EnrollmentOutcome.NOT_FOUND);
+                else if(!registered.get(id))
+                    outcomes.put(id, EnrollmentOutcome.UNREGISTERED);
+                else if(enrolledIds.contains(id))
+                    outcomes.put(id, EnrollmentOutcome.ALREADY_ENROLLED);
+                else
+                    outcomes.put(id, EnrollmentOutcome.ENROLLED);
+            }
+        }
+
+        List<Object[]> inserts = outcomes.entrySet()
+                .stream()
+                .filter(e -> e.getValue() == EnrollmentOutcome.ENROLLED)
+                .map(e -> new Object[] { e.getKey(), courseName })
+                .collect(Collectors.toList());
+        if(inserts.isEmpty())
+            return outcomes;
+
+        // pending changes of the persistence context must reach the db before the plain jdbc statements
+        courseRepository.flush();
+        jdbcTemplate.batchUpdate("INSERT INTO student_course (student_id, course_name) VALUES (?, ?)", inserts);
+
+        inserts.forEach(row -> membershipIndex.invalidateUser((String) row[0]));
+        membershipIndex.invalidateCourse(courseName);
+        return outcomes;
+    }
+
+    @Override
+    @PreAuthorize("hasRole('ROLE_PROFESSOR')")
+    public Map<String, EnrollmentOutcome> unenrollStudents(List<String> studentIds, String courseName) {
+        entityLoader.checkCourseExists(courseName);
+
         authService.checkAuthorizationForCourse(courseName);
 
-        List<StudentDTO> studentsFromClient;
+        Set<String> enrolledIds = new HashSet<>(courseRepository.getEnrolledStudentIds(courseName));
+        Map<String, EnrollmentOutcome> outcomes = new LinkedHashMap<>();
+        studentIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .forEach(id -> outcomes.put(id, enrolledIds.contains(id) ? EnrollmentOutcome.UNENROLLED : EnrollmentOutcome.NOT_ENROLLED));
+
+        List<Object[]> deletes = outcomes.entrySet()
+                .stream()
+                .filter(e -> e.getValue() == EnrollmentOutcome.UNENROLLED)
+                .map(e -> new Object[] { e.getKey(), courseName })
+                .collect(Collectors.toList());
+        if(deletes.isEmpty())
+            return outcomes;
+
+        courseRepository.flush();
+
+        // leave the teams of the course, teams left without members are removed with their vms
+        jdbcTemplate.batchUpdate("DELETE FROM team_student WHERE student_id = ? AND team_id IN " +
+                "(SELECT t.id FROM team t WHERE t.course_name = ?)", deletes);
+        jdbcTemplate.batchUpdate("DELETE FROM student_course WHERE student_id = ? AND course_name = ?", deletes);
+
+        for(Team team : teamRepository.findEmptyTeamsByCourseName(courseName)) {
+            releaseTeam(team);
+            teamRepository.delete(team);
+        }
+        teamRepository.flush();
+
+        deletes.forEach(row -> membershipIndex.invalidateUser((String) row[0]));
+        membershipIndex.invalidateCourse(courseName);
+        return outcomes;
+    }
+
+    @Override
+    @PreAuthorize("hasRole('ROLE_PROFESSOR')")
+    public Path checkCsv(Reader r, String courseName) throws IOException {
+        authService.checkAuthorizationForCourse(courseName);
+
+        Iterator<StudentDTO> studentsFromClient;
         try {
-            // create csv bean reader
+            // create csv bean reader, rows are parsed while iterating
             CsvToBean<StudentDTO> csvToBean = new CsvToBeanBuilder(r)
                     .withType(StudentDTO.class)
                     .withIgnoreLeadingWhiteSpace(true)
                     .build();
-            // convert `CsvToBean` object to list of students
-            studentsFromClient = csvToBean.parse();
+            studentsFromClient = csvToBean.iterator();
         } catch(Exception ex) {
             throw new ParsingFileException("Error in parsing file");
         }
 
-        Map<String, Integer> studentsStatus = new HashMap<>();
+        Set<String> enrolledIds = new HashSet<>(courseRepository.getEnrolledStudentIds(courseName));
 
-        for(StudentDTO s : studentsFromClient) {
-            if(!userRepository.studentExistsById(s.getId())) {
-                studentsStatus.put(s.getId(), StudentStatus.NOT_FOUND.ordinal());
-                continue;
-            }
-            Student student = userRepository.getStudentById(s.getId());
-            if(!student.isRegistered()) {
-                studentsStatus.put(s.getId(), StudentStatus.UNREGISTERED.ordinal());
-                continue;
+        // the result is spooled to disk and handed back only once the whole file is parsed,
+        // the status map is kept apart and appended after the student list
+        Path resultFile = Files.createTempFile("checkCsv", ".json");
+        Path statusFile = Files.createTempFile("checkCsv", ".json");
+        try {
+            try (Writer out = Files.newBufferedWriter(resultFile);
+                 Writer statusWriter = Files.newBufferedWriter(statusFile)) {
+                out.write("{\"studentList\":[");
+                boolean first = true;
+                List<StudentDTO> chunk = new ArrayList<>(CSV_CHUNK_SIZE);
+                while(hasNextStudent(studentsFromClient)) {
+                    chunk.add(nextStudent(studentsFromClient));
+                    if(chunk.size() < CSV_CHUNK_SIZE && hasNextStudent(studentsFromClient))
+                        continue;
+
+                    // one query for the whole chunk
+                    Map<String, StudentStatus> statuses = getEnrollmentStatus(chunk, enrolledIds);
+                    for(StudentDTO s : chunk) {
+                        JSONObject jsonStudent = new JSONObject()
+                                .appendField("id", s.getId())
+                                .appendField("username", s.getUsername())
+                                .appendField("name", s.getName())
+                                .appendField("surname", s.getSurname());
+                        if(!first) {
+                            out.write(',');
+                            statusWriter.write(',');
+                        }
+                        first = false;
+                        out.write(jsonStudent.toJSONString());
+                        statusWriter.write("\"" + JSONValue.escape(String.valueOf(s.getId())) + "\":" + statuses.get(s.getId()).ordinal());
+                    }
+                    chunk.clear();
+                }
+                out.write("],\"statusMap\":{");
             }
-            if(student.getCourses().stream().map(Course::getName).collect(Collectors.toList()).contains(courseName)) {
-                studentsStatus.put(s.getId(), StudentStatus.ALREADY_ENROLLED.ordinal());
-                continue;
+
+            // both files are utf-8, the status map is appended as it is
+            try (OutputStream out = Files.newOutputStream(resultFile, StandardOpenOption.APPEND)) {
+                Files.copy(statusFile, out);
+                out.write("}}".getBytes(StandardCharsets.UTF_8));
             }
-            studentsStatus.put(s.getId(), StudentStatus.VALID.ordinal());
+        } catch(IOException | RuntimeException ex) {
+            Files.deleteIfExists(resultFile);
+            throw ex;
+        } finally {
+            Files.deleteIfExists(statusFile);
         }
+        return resultFile;
+    }
 
-        JSONArray jsonArray = new JSONArray();
-        studentsFromClient.forEach(s -> {
-            JSONObject jsonStudent = new JSONObject()
-                    .appendField("id", s.getId())
-                    .appendField("username", s.getUsername())
-                    .appendField("name", s.getName())
-                    .appendField("surname", s.getSurname());
-            jsonArray.appendElement(jsonStudent);
-        });
+    private StudentDTO nextStudent(Iterator<StudentDTO> it) {
+        try {
+            return it.next();
+        } catch(RuntimeException ex) {
+            throw new ParsingFileException("Error in parsing file");
+        }
+    }
+
+    private boolean hasNextStudent(Iterator<StudentDTO> it) {
+        try {
+            return it.hasNext();
+        } catch(RuntimeException ex) {
+            throw new ParsingFileException("Error in parsing file");
+        }
+    }
 
-        String jsonString = new JSONObject()
-                .appendField("studentList", jsonArray)
-                .appendField("statusMap", studentsStatus)
-                .toJSONString();
+    private Map<String, StudentStatus> getEnrollmentStatus(Collection<StudentDTO> students, Set<String> enrolledIds) {
+        Set<String> ids = students.stream().map(StudentDTO::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, Boolean> registered = new HashMap<>();
+        if(!ids.isEmpty())
+            userRepository.getStudentRegistrations(ids).forEach(row -> registered.put(row.getId(), row.isRegistered()));
 
-        return jsonString;
+        Map<String, StudentStatus> statuses = new HashMap<>();
+        for(StudentDTO s : students) {
+            if(!registered.containsKey(s.getId()))
+                statuses.put(s.getId(), StudentStatus.NOT_FOUND);
+            else if(!registered.get(s.getId()))
+                statuses.put(s.getId(), StudentStatus.UNREGISTERED);
+            else if(enrolledIds.contains(s.getId()))
+                statuses.put(s.getId(), StudentStatus.ALREADY_ENROLLED);
+            else
+                statuses.put(s.getId(), StudentStatus.VALID);
+        }
+        return statuses;
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     public List<CourseDTO> getCoursesForStudent(String studentId) {
-        if (!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+        Student student = userRepository.findStudentWithCoursesById(studentId)
+                .orElseThrow(() -> studentNotFound(studentId));
 
         authService.checkIdentity(studentId);
 
-        Student student = userRepository.getStudentById(studentId);
         return student.getCourses()
                 .stream()
-                .map(c -> modelMapper.map(c, CourseDTO.class))
+                .map(c -> dtoMapper.toCourseDTO(c))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public List<CourseDTO> getCoursesForProfessor(String professorId) {
-        if (!userRepository.professorExistsById(professorId))
-            throw new ProfessorNotFoundException("The professor with id '" + professorId + "' was not found");
+        Professor professor = userRepository.findProfessorWithCoursesById(professorId)
+                .orElseThrow(() -> professorNotFound(professorId));
 
         authService.checkIdentity(professorId);
 
-        Professor professor = userRepository.getProfessorById(professorId);
         return professor.getCourses()
                 .stream()
-                .map(c -> modelMapper.map(c, CourseDTO.class))
+                .map(c -> dtoMapper.toCourseDTO(c))
                 .collect(Collectors.toList());
     }
 
     @Override
     public Optional<CourseDTO> getCourseForTeam(Long teamId) {
-        if(!teamRepository.existsById(teamId))
-            throw new TeamNotFoundException("The team with id '" + teamId + "' was not found");
-
-        Course course = teamRepository.getOne(teamId).getCourse();
+        Course course = entityLoader.loadTeam(teamId).getCourse();
 
-        return Optional.of(modelMapper.map(course, CourseDTO.class));
+        return Optional.of(dtoMapper.toCourseDTO(course));
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     public List<TeamDTO> getTeamsForStudent(String studentId) {
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+        Student student = userRepository.findStudentWithTeamsById(studentId)
+                .orElseThrow(() -> studentNotFound(studentId));
 
         authService.checkIdentity(studentId);
 
-        Student student = userRepository.getStudentById(studentId);
         return student.getTeams()
                 .stream()
-                .map(t -> modelMapper.map(t, TeamDTO.class))
+                .map(t -> dtoMapper.toTeamDTO(t))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<StudentDTO> getTeamMembers(Long teamId) {
-        Optional<Team> teamOpt = teamRepository.findById(teamId);
-        if(!teamOpt.isPresent())
-            throw new TeamNotFoundException("The team with id '" + teamId + "' was not found");
-
-        Team team = teamOpt.get();
+        Team team = teamRepository.findWithStudentsById(teamId)
+                .orElseThrow(() -> teamNotFound(teamId));
         authService.checkAuthorizationForCourse(team.getCourse().getName());
 
         return team
                 .getStudents()
                 .stream()
-                .map(s -> modelMapper.map(s, StudentDTO.class))
+                .map(s -> dtoMapper.toStudentDTO(s))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     public Long proposeTeam(String courseName, String teamName, List<String> memberIds, String creatorUsername) throws MessagingException {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        Course course = entityLoader.loadCourse(courseName);
 
         authService.checkAuthorizationForCourse(courseName);
 
@@ -571,7 +756,6 @@ public class TeamServiceImpl implements TeamService {
         if(oldProposal.isPresent() && oldProposal.get().getStatus() != TeamProposal.TeamProposalStatus.REJECTED)
             throw new TeamAlreadyProposedException("The team '" + teamName + "' for the course named '" + courseName + "' has already a request in progress or accepted");
 
-        Course course = courseRepository.getOne(courseName);
         if(!course.isEnabled())
             throw new CourseNotEnabledException("The course named '" + courseName + "' is not enabled");
 
@@ -591,10 +775,7 @@ public class TeamServiceImpl implements TeamService {
 
         List<Student> students = new ArrayList<>();
         for(String memberId : distinctMembersIds) {
-            if(!userRepository.studentExistsById(memberId))
-                throw new StudentNotFoundException("The student with id '" + memberId + "' was not found");
-
-            Student student = userRepository.getStudentById(memberId);
+            Student student = entityLoader.loadStudent(memberId);
             if(!student.getCourses().contains(course))
                 throw new StudentNotEnrolledException("The student with id '" + memberId + "' is not enrolled to the course named '" + courseName +"' ");
 
@@ -610,8 +791,6 @@ public class TeamServiceImpl implements TeamService {
             students.add(student); //this will be part of the team (if all the controls are verified)
         }
 
-        Student creator = userRepository.getStudentByUsername(creatorUsername);
-
         // Create new team proposal
         TeamProposal proposal = new TeamProposal();
         proposal.setStatus(TeamProposal.TeamProposalStatus.PENDING);
@@ -619,7 +798,7 @@ public class TeamServiceImpl implements TeamService {
         proposal.setCourse(course);
         proposal.setTeamName(teamName);
         proposal.setExpiryDate(LocalDateTime.now().plusDays(PROPOSAL_EXPIRATION_DAYS));
-        proposal.setCreatorId(creator.getId());
+        proposal.setCreatorId(me.getId());
 
         teamProposalRepository.save(proposal);
         for(Student s : students) {
@@ -647,94 +826,78 @@ public class TeamServiceImpl implements TeamService {
 
         authService.checkAuthorizationForCourse(teamProposalOpt.get().getCourse().getName());
 
-        return teamProposalRepository.findById(teamProposalId)
-                .map(t -> modelMapper.map(t, TeamProposalDTO.class));
+        return teamProposalOpt.map(t -> dtoMapper.toTeamProposalDTO(t));
     }
 
     @Override
     public Optional<CourseDTO> getTeamProposalCourse(Long teamProposalId) {
-        if(!teamProposalRepository.existsById(teamProposalId))
-            return Optional.empty();
-        Course course = teamProposalRepository.getOne(teamProposalId).getCourse();
-
-        return Optional.of(modelMapper.map(course, CourseDTO.class));
+        return teamProposalRepository.findById(teamProposalId)
+                .map(tp -> dtoMapper.toCourseDTO(tp.getCourse()));
     }
 
     @Override
     public List<StudentDTO> getTeamProposalMembers(Long teamProposalId) {
-        Optional<TeamProposal> teamProposalOpt = teamProposalRepository.findById(teamProposalId);
-        if(!teamProposalOpt.isPresent())
-            throw new TeamProposalNotFoundException("The team proposal with id '" + teamProposalId + "' was not found");
-
-        TeamProposal teamProposal = teamProposalOpt.get();
+        TeamProposal teamProposal = teamProposalRepository.findWithStudentsById(teamProposalId)
+                .orElseThrow(() -> teamProposalNotFound(teamProposalId));
         authService.checkAuthorizationForCourse(teamProposal.getCourse().getName());
 
         return teamProposal
                 .getStudents()
                 .stream()
-                .map(s -> modelMapper.map(s, StudentDTO.class))
+                .map(s -> dtoMapper.toStudentDTO(s))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<TeamProposalDTO> getPendingTeamProposalForCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        entityLoader.checkCourseExists(courseName);
         return teamProposalRepository.findAllByCourseNameAndStatus(courseName, TeamProposal.TeamProposalStatus.PENDING)
                 .stream()
-                .map(tp -> modelMapper.map(tp, TeamProposalDTO.class))
+                .map(tp -> dtoMapper.toTeamProposalDTO(tp))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<TeamProposalDTO> getTeamProposalsForCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        Course course = courseRepository.findWithTeamProposalsByName(courseName)
+                .orElseThrow(() -> courseNotFound(courseName));
 
         authService.checkAuthorizationForCourse(courseName);
 
-        return courseRepository
-                .getOne(courseName)
+        return course
                 .getTeamProposals()
                 .stream()
-                .map(tp -> modelMapper.map(tp, TeamProposalDTO.class))
+                .map(tp -> dtoMapper.toTeamProposalDTO(tp))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<TeamProposalDTO> getTeamProposalsForStudent(String studentId) {
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
-
-        return userRepository
-                .getStudentById(studentId)
+        return userRepository.findStudentWithTeamProposalsById(studentId)
+                .orElseThrow(() -> studentNotFound(studentId))
                 .getTeamProposals()
                 .stream()
-                .map(tp -> modelMapper.map(tp, TeamProposalDTO.class))
+                .map(tp -> dtoMapper.toTeamProposalDTO(tp))
                 .collect(Collectors.toList());
     }
 
     @Override
     public TeamDTO getTeamForStudentAndCourse(String studentId, String courseName) {
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        Student s = entityLoader.loadStudent(studentId);
+        entityLoader.checkCourseExists(courseName);
 
-        Student s = userRepository.getStudentById(studentId);
         Optional<Team> team = teamRepository.findByStudentsContainsAndCourseName(s, courseName);
 
-        return team.map(value -> modelMapper.map(value, TeamDTO.class)).orElse(null);
+        return team.map(value -> dtoMapper.toTeamDTO(value)).orElse(null);
 
     }
 
     @Override
     public boolean hasAcceptedProposals(String studentId, String courseName) {
         if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+            throw studentNotFound(studentId);
 
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        entityLoader.checkCourseExists(courseName);
 
         authService.checkAuthorizationForCourse(courseName);
 
@@ -743,80 +906,68 @@ public class TeamServiceImpl implements TeamService {
         if(teamProposalIds.isEmpty())
             return false;
 
-        for (Long proposalId: teamProposalIds) {
-            String token = notificationService.getTokenByStudentId(proposalId, studentId);
-            if(token != null)
-                return false;
-        }
-        return true;
+        // the student accepted when no pending proposal still waits for its answer
+        return !teamProposalTokenRepository.existsByStudentIdAndCourseNameAndStatus(studentId, courseName,
+                TeamProposal.TeamProposalStatus.PENDING);
     }
 
     @Override
     public boolean checkProposalResponse(String studentId, Long teamProposalId) {
         if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id '" + studentId + "' was not found");
+            throw studentNotFound(studentId);
 
         if(!teamProposalRepository.existsById(teamProposalId))
-            throw new TeamProposalNotFoundException("The team proposal with id '" + teamProposalId + "' was not found");
+            throw teamProposalNotFound(teamProposalId);
 
         authService.checkAuthorizationForTeamProposalMembers(studentId);
 
-        List<String> tokensLeft = teamProposalRepository.getOne(teamProposalId).getTokens();
-
-        return tokensLeft
-                .stream()
-                .map(token -> this.notificationService.getStudentByToken(token))
-                .noneMatch(studentOpt -> studentOpt.isPresent() && studentOpt.get().getId().equals(studentId));
+        return !teamProposalTokenRepository.existsByTeamProposalIdAndStudentId(teamProposalId, studentId);
     }
 
     @Override
     public List<TeamDTO> getTeamsForCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        Course course = courseRepository.findWithTeamsByName(courseName)
+                .orElseThrow(() -> courseNotFound(courseName));
 
         authService.checkAuthorizationForCourse(courseName);
 
-        return courseRepository
-                .getOne(courseName)
+        return course
                 .getTeams()
                 .stream()
-                .map(t -> modelMapper.map(t, TeamDTO.class))
+                .map(t -> dtoMapper.toTeamDTO(t))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<StudentDTO> getStudentsInTeams(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        entityLoader.checkCourseExists(courseName);
 
         authService.checkAuthorizationForCourse(courseName);
 
         return courseRepository
                 .getStudentsInTeams(courseName)
                 .stream()
-                .map(s -> modelMapper.map(s, StudentDTO.class))
+                .map(s -> dtoMapper.toStudentDTO(s))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<StudentDTO> getAvailableStudents(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named '" + courseName + "' was not found");
+        entityLoader.checkCourseExists(courseName);
 
         authService.checkAuthorizationForCourse(courseName);
 
         return courseRepository
                 .getStudentsNotInTeams(courseName)
                 .stream()
-                .map(s -> modelMapper.map(s, StudentDTO.class))
+                .map(s -> dtoMapper.toStudentDTO(s))
                 .collect(Collectors.toList());
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean editCourse(String courseName, CourseDTO courseDTO) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("Il corso '" + courseName + "' non è stato trovato");
+        Course course = entityLoader.loadCourse(courseName);
 
         authService.checkAuthorizationForCourse(courseName);
 
@@ -825,15 +976,11 @@ public class TeamServiceImpl implements TeamService {
                 courseDTO.getMaxTeamSize() - courseDTO.getMinTeamSize() < 0)
             return false;
 
-        Course course = courseRepository.getOne(courseName);
         course.setMaxTeamSize(courseDTO.getMaxTeamSize());
         course.setMinTeamSize(courseDTO.getMinTeamSize());
 
         try {
-            File infoToEdit = new File(RESOURCES_PATH + courseDTO.getName() + ".txt");
-            FileOutputStream stream = new FileOutputStream(infoToEdit);
-            stream.write(courseDTO.getInfo().getBytes());
-            stream.close();
+            courseInfoStore.write(courseDTO.getName(), courseDTO.getInfo());
         } catch(IOException ex) {
             System.err.println(ex.getMessage());
         }
@@ -845,23 +992,26 @@ public class TeamServiceImpl implements TeamService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public void removeCourse(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named " + courseName + " does not exist");
+        Course c = entityLoader.loadCourse(courseName);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        //remove course
-        Course c = courseRepository.getOne(courseName);
-        teamService.getProfessorsForCourse(courseName).forEach(prof ->
-                userRepository.getProfessorById(prof.getId()).removeCourse(c));
-        teamService.getEnrolledStudents(courseName).forEach(student ->
-                userRepository.getStudentById(student.getId()).removeCourse(c));
+        //remove course, walking its collections instead of looking up every member again
+        new ArrayList<>(c.getProfessors()).forEach(prof -> {
+            prof.removeCourse(c);
+            membershipIndex.invalidateUser(prof.getId());
+        });
+        new ArrayList<>(c.getStudents()).forEach(student -> {
+            student.removeCourse(c);
+            membershipIndex.invalidateUser(student.getId());
+        });
+        c.getTeams().forEach(this::releaseTeam);
+        membershipIndex.invalidateCourse(courseName);
         courseRepository.deleteById(courseName);
         courseRepository.flush();
 
         try {
-            File infoToDelete = new File(RESOURCES_PATH + c.getName() + ".txt");
-            Files.deleteIfExists(infoToDelete.toPath());
+            courseInfoStore.delete(courseName);
         } catch(IOException ex) {
             System.err.println(ex.getMessage());
         }
@@ -870,11 +1020,13 @@ public class TeamServiceImpl implements TeamService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public void deleteTeam(Long teamId) {
-        Optional<Team> teamOpt = teamRepository.findById(teamId);
-        if(!teamOpt.isPresent())
-            throw new TeamNotFoundException("The team with id " + teamId + " does not exist");
+        Team team = entityLoader.loadTeam(teamId);
 
-        authService.checkAuthorizationForCourse(teamOpt.get().getCourse().getName());
+        authService.checkAuthorizationForCourse(team.getCourse().getName());
+
+        //vms are removed in cascade with their team
+        team.getStudents().forEach(s -> membershipIndex.invalidateUser(s.getId()));
+        releaseTeam(team);
 
         teamRepository.deleteById(teamId);
         teamRepository.flush();
@@ -882,12 +1034,12 @@ public class TeamServiceImpl implements TeamService {
 
     @Override
     public void deleteTeamProposal(Long teamProposalId) {
-        if(!teamProposalRepository.existsById(teamProposalId))
-            throw new TeamProposalNotFoundException("The team proposal with id " + teamProposalId + " does not exist");
+        TeamProposal teamProposal = teamProposalRepository.findWithStudentsById(teamProposalId)
+                .orElseThrow(() -> teamProposalNotFound(teamProposalId));
+
+        authService.checkAuthorizationForCourse(teamProposal.getCourse().getName());
 
-        TeamProposal teamProposal = teamProposalRepository.getOne(teamProposalId);
-        teamService.getTeamProposalMembers(teamProposalId)
-                .forEach(s -> userRepository.getStudentById(s.getId()).removeTeamProposal(teamProposal));
+        new ArrayList<>(teamProposal.getStudents()).forEach(s -> s.removeTeamProposal(teamProposal));
         teamProposal.setCourse(null);
         teamProposalRepository.deleteById(teamProposalId);
         teamProposalRepository.flush();
@@ -895,16 +1047,19 @@ public class TeamServiceImpl implements TeamService {
 
     @Override
     public List<Long> getPendingTeamProposalIdsForStudent(String courseName, String studentId) {
-        // get pending team proposals of the course
-        List<TeamProposal> teamProposals = teamProposalRepository
-                .findAllByCourseNameAndStatus(courseName, TeamProposal.TeamProposalStatus.PENDING);
+        // get the ids of the pending team proposals of the course where current student is part of
+        return teamProposalRepository.getIdsByCourseNameAndStatusAndStudentId(courseName,
+                TeamProposal.TeamProposalStatus.PENDING, studentId);
+    }
 
-        // get the ids of team proposals where current student is part of
-        return teamProposals
-                .stream()
-                .filter(prop ->
-                        prop.getStudents().stream().map(User::getId).collect(Collectors.toList()).contains(studentId))
-                .map(TeamProposal::getId)
-                .collect(Collectors.toList());
+    //drop what is kept in memory for a team being deleted and for its vms, every path that deletes teams goes through here
+    private void releaseTeam(Team team) {
+        membershipIndex.invalidateTeam(team.getId());
+        team.getVms().forEach(vm -> {
+            membershipIndex.invalidateVm(vm.getId());
+            vmStateRegistry.unregisterAfterCommit(vm.getId());
+            eventPublisher.publishEvent(new VmEvent(vm.getId(), VmEvent.VmEventType.REMOVED));
+        });
+        teamQuotaLedger.evict(team.getId());
     }
 }
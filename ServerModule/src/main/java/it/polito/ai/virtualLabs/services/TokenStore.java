@@ -0,0 +1,168 @@
+package it.polito.ai.virtualLabs.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import it.polito.ai.virtualLabs.metrics.CacheMetrics;
+import it.polito.ai.virtualLabs.repositories.TokenRepository;
+import it.polito.ai.virtualLabs.services.exceptions.team.TokenNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class TokenStore implements MeterBinder {
+
+    private static final int PURGE_BATCH_SIZE = 500;
+    private static final long PURGE_DELAY_MILLIS = 60 * 60 * 1000L;
+    //expired refresh tokens are kept for a while, so that the client is still told they are expired
+    private static final int PURGE_GRACE_DAYS = 7;
+
+    @Autowired
+    TokenRepository tokenRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Value("${security.refresh-token.cache-size:10000}")
+    private int maxSize = 10000;
+
+    //hash of a verified refresh token -> its owner and expiration; raw tokens are never kept in memory
+    private final Map<String, RefreshTokenEntry> refreshTokens = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static String getUsername(String token) {
+        return new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8).split("\\|")[1];
+    }
+
+    public LocalDateTime getRefreshTokenExpiration(String token) {
+        String key = hash(token);
+
+        // check if token has a valid format
+        String decodedToken = new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8);
+        if(!AuthServiceImpl.USERNAME_PATTERN.matcher(decodedToken).find())
+            throw new IllegalStateException("Invalid token format");
+        String decodedUsername = decodedToken.split("\\|")[1];
+
+        //entries of users that are unregistered or deleted are evicted by UserTokenListener
+        RefreshTokenEntry entry = refreshTokens.get(key);
+        if(entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+
+            // the token is the key of its row: no need to go through the user
+            TokenRepository.RefreshTokenOwner owner = tokenRepository.getRefreshTokenOwner(token)
+                    .orElseThrow(() -> new TokenNotFoundException("Token not found"));
+            if(!owner.isRegistered())
+                throw new UsernameNotFoundException("Username '" + decodedUsername + "' was not found");
+            entry = new RefreshTokenEntry(owner.getUsername(), owner.getExpiration());
+            if(entry.username.equals(decodedUsername))
+                put(key, entry);
+        }
+
+        if(!entry.username.equals(decodedUsername))
+            throw new IllegalStateException("Invalid provided token");
+        return entry.expiration;
+    }
+
+    public void evictRefreshToken(String token) {
+        String key = hash(token);
+        evict(() -> refreshTokens.remove(key));
+    }
+
+    public void evictRefreshTokensOf(String username) {
+        evict(() -> refreshTokens.values().removeIf(entry -> entry.username.equals(username)));
+    }
+
+    @Scheduled(fixedDelay = PURGE_DELAY_MILLIS)
+    public void purge() {
+        LocalDateTime expiredBefore = LocalDateTime.now().minusDays(PURGE_GRACE_DAYS);
+        refreshTokens.values().removeIf(entry -> entry.expiration.isBefore(expiredBefore));
+
+        //registration and refresh tokens are removed in batches, each in its own transaction
+        int deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> {
+                List<String> tokens = tokenRepository.getExpiredTokens(expiredBefore, PageRequest.of(0, PURGE_BATCH_SIZE));
+                if(tokens.isEmpty())
+                    return 0;
+                tokenRepository.deleteByTokenIn(tokens);
+                return tokens.size();
+            });
+        } while(deleted == PURGE_BATCH_SIZE);
+    }
+
+    public int size() {
+        return refreshTokens.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CacheMetrics.bind(registry, "refresh.tokens", hits, misses);
+        Gauge.builder("cache.size", this, TokenStore::size)
+                .tag("cache", "refresh.tokens")
+                .register(registry);
+    }
+
+    private void evict(Runnable eviction) {
+        //evicted again after commit, in case a concurrent lookup cached the old row in the meantime
+        eviction.run();
+        if(TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    eviction.run();
+                }
+            });
+    }
+
+    private void put(String key, RefreshTokenEntry entry) {
+        if(refreshTokens.size() >= maxSize) {
+            //make room dropping arbitrary entries, they will be loaded again
+            Iterator<String> it = refreshTokens.keySet().iterator();
+            while(refreshTokens.size() >= maxSize && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        refreshTokens.put(key, entry);
+    }
+
+    private static class RefreshTokenEntry {
+        final String username;
+        final LocalDateTime expiration;
+
+        RefreshTokenEntry(String username, LocalDateTime expiration) {
+            this.username = username;
+            this.expiration = expiration;
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
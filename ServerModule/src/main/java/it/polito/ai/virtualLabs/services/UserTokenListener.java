@@ -0,0 +1,29 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.entities.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+@Component
+public class UserTokenListener {
+
+    //lazy, the listener is created with the entity manager factory that the token store depends on
+    @Lazy
+    @Autowired
+    TokenStore tokenStore;
+
+    @PostUpdate
+    public void userUpdated(User user) {
+        if(!user.isRegistered())
+            tokenStore.evictRefreshTokensOf(user.getUsername());
+    }
+
+    @PostRemove
+    public void userRemoved(User user) {
+        tokenStore.evictRefreshTokensOf(user.getUsername());
+    }
+}
@@ -0,0 +1,18 @@
+package it.polito.ai.virtualLabs.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class VmEvent {
+
+    private Long vmId;
+    private VmEventType type;
+
+    public enum VmEventType {
+        POWERED_ON,
+        POWERED_OFF,
+        REMOVED
+    }
+}
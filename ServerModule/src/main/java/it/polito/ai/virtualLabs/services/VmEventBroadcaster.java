@@ -0,0 +1,98 @@
+package it.polito.ai.virtualLabs.services;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class VmEventBroadcaster {
+
+    private static final long EMITTER_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    private static final long KEEP_ALIVE_MILLIS = 25 * 1000L;
+
+    private static final String POWER_EVENT = "power";
+    private static final String REMOVED_EVENT = "removed";
+
+    //vmId -> emitters of the desktops that are watching that vm
+    private final Map<Long, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public SseEmitter subscribe(Map<Long, Boolean> currentStates) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MILLIS);
+        Set<Long> vmIds = new HashSet<>(currentStates.keySet());
+
+        emitter.onCompletion(() -> unsubscribe(emitter, vmIds));
+        emitter.onTimeout(() -> unsubscribe(emitter, vmIds));
+        emitter.onError(ex -> unsubscribe(emitter, vmIds));
+
+        vmIds.forEach(vmId -> subscribers.computeIfAbsent(vmId, id -> ConcurrentHashMap.newKeySet()).add(emitter));
+
+        //send the current state so that the client does not need to ask for it
+        currentStates.forEach((vmId, active) -> send(emitter, vmIds, POWER_EVENT, powerPayload(vmId, active)));
+
+        return emitter;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onVmEvent(VmEvent event) {
+        Set<SseEmitter> emitters = event.getType() == VmEvent.VmEventType.REMOVED ?
+                subscribers.remove(event.getVmId()) :
+                subscribers.get(event.getVmId());
+        if(emitters == null)
+            return;
+
+        String name;
+        Map<String, Object> payload;
+        if(event.getType() == VmEvent.VmEventType.REMOVED) {
+            name = REMOVED_EVENT;
+            payload = Collections.singletonMap("vmId", event.getVmId());
+        } else {
+            name = POWER_EVENT;
+            payload = powerPayload(event.getVmId(), event.getType() == VmEvent.VmEventType.POWERED_ON);
+        }
+
+        for(SseEmitter emitter : emitters)
+            send(emitter, Collections.singleton(event.getVmId()), name, payload);
+    }
+
+    @Scheduled(fixedRate = KEEP_ALIVE_MILLIS)
+    public void keepAlive() {
+        //comments are ignored by EventSource but keep proxies from closing idle connections
+        subscribers.forEach((vmId, emitters) ->
+                emitters.forEach(emitter -> send(emitter, Collections.singleton(vmId), null, null)));
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void send(SseEmitter emitter, Set<Long> vmIds, String name, Object payload) {
+        try {
+            if(name == null)
+                emitter.send(SseEmitter.event().comment("keep-alive"));
+            else
+                emitter.send(SseEmitter.event().name(name).data(payload));
+        } catch (IOException | IllegalStateException ex) {
+            unsubscribe(emitter, vmIds);
+            emitter.completeWithError(ex);
+        }
+    }
+
+    private void unsubscribe(SseEmitter emitter, Set<Long> vmIds) {
+        vmIds.forEach(vmId -> subscribers.computeIfPresent(vmId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        }));
+    }
+
+    private Map<String, Object> powerPayload(Long vmId, boolean active) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("vmId", vmId);
+        payload.put("active", active);
+        return payload;
+    }
+}
@@ -1,6 +1,7 @@
 package it.polito.ai.virtualLabs.services;
 
 import it.polito.ai.virtualLabs.dtos.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Optional;
@@ -12,8 +13,8 @@ public interface VmService {
     Optional<StudentDTO> getCreator(Long vmId);
     List<StudentDTO> getOwners(Long vmId);
     Optional<TeamDTO> getTeam(Long vmId);
-    List<VmModelDTO> getAllVmModels();
-    List<VmDTO> getAllVms();
+    List<VmModelDTO> getAllVmModels(Long afterId, int limit);
+    List<VmDTO> getAllVms(Long afterId, int limit);
     Optional<VmModelDTO> getCourseVmModel(String courseName);
     Optional<CourseDTO> getVmModelCourse(Long vmModelId);
     Optional<ProfessorDTO> getVmModelProfessor(Long vmModelId);
@@ -22,6 +23,7 @@ public interface VmService {
     List<VmDTO> getTeamVms(Long teamId);
     List<VmModelDTO> getProfessorVmModels(String professorId);
     List<AssignmentDTO> getProfessorAssignments(String professorId);
+    SseEmitter subscribeToVms(List<Long> vmIds);
 
     Long createVm(VmDTO vmDTO, String studentId, Long teamId, boolean allOwners);
     void removeVm(Long vmId);
@@ -4,25 +4,24 @@ import it.polito.ai.virtualLabs.dtos.*;
 import it.polito.ai.virtualLabs.entities.*;
 import it.polito.ai.virtualLabs.repositories.*;
 import it.polito.ai.virtualLabs.services.exceptions.course.CourseNotFoundException;
-import it.polito.ai.virtualLabs.services.exceptions.professor.ProfessorNotFoundException;
-import it.polito.ai.virtualLabs.services.exceptions.student.StudentNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.team.TeamNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.vm.VmIsActiveException;
 import it.polito.ai.virtualLabs.services.exceptions.vm.VmNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.vmmodel.VmModelNotFoundException;
 import it.polito.ai.virtualLabs.services.exceptions.vmmodel.VmModelResourcesExceededException;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.transaction.Transactional;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.Random;
+import java.util.*;
 import java.util.stream.Collectors;
 
+import static it.polito.ai.virtualLabs.services.EntityLoader.vmNotFound;
+
 @Service
 @Transactional
 public class VmServiceImpl implements VmService {
@@ -43,205 +42,202 @@ public class VmServiceImpl implements VmService {
     @Autowired
     TeamRepository teamRepository;
     @Autowired
-    UserRepository userRepository;
-    @Autowired
     AuthService authService;
     @Autowired
-    CourseRepository courseRepository;
+    DtoMapper dtoMapper;
+    @Autowired
+    VmEventBroadcaster vmEventBroadcaster;
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+    @Autowired
+    VmStateRegistry vmStateRegistry;
+    @Autowired
+    TeamQuotaLedger teamQuotaLedger;
+    @Autowired
+    MembershipIndex membershipIndex;
     @Autowired
-    ModelMapper modelMapper;
+    EntityLoader entityLoader;
 
     @Override
     public Optional<VmDTO> getVm(Long vmId) {
-        if (!vmRepository.existsById(vmId))
+        Optional<Vm> vmOpt = vmRepository.findById(vmId);
+        if (!vmOpt.isPresent())
             return Optional.empty();
 
         authService.checkAuthorizationForVm(vmId);
 
-        return Optional.of(vmRepository.getOne(vmId))
-                .map(vm -> modelMapper.map(vm, VmDTO.class));
+        return vmOpt.map(this::toVmDTO);
     }
 
     @Override
     public Optional<VmModelDTO> getVmModel(Long vmModelId) {
-        if (!vmModelRepository.existsById(vmModelId))
-            return Optional.empty();
-        return Optional.of(vmModelRepository.getOne(vmModelId))
-                .map(vmModel -> modelMapper.map(vmModel, VmModelDTO.class));
+        return vmModelRepository.findById(vmModelId)
+                .map(vmModel -> dtoMapper.toVmModelDTO(vmModel));
     }
 
     @Override
     public Optional<VmModelDTO> getVmModelForVm(Long vmId) {
-        if (!vmRepository.existsById(vmId))
+        Optional<Vm> vmOpt = vmRepository.findById(vmId);
+        if (!vmOpt.isPresent())
             return Optional.empty();
 
         authService.checkAuthorizationForVm(vmId);
 
-        return Optional.of(vmRepository.getOne(vmId).getVmModel())
-                .map(vmModel -> modelMapper.map(vmModel, VmModelDTO.class));
+        return vmOpt.map(Vm::getVmModel)
+                .map(vmModel -> dtoMapper.toVmModelDTO(vmModel));
     }
 
     @Override
     public Optional<StudentDTO> getCreator(Long vmId) {
-        if (!vmRepository.existsById(vmId))
-            return Optional.empty();
-
-        return Optional.of(vmRepository.getOne(vmId).getCreator())
-                .map(student -> modelMapper.map(student, StudentDTO.class));
+        return vmRepository.findById(vmId)
+                .map(Vm::getCreator)
+                .map(student -> dtoMapper.toStudentDTO(student));
     }
 
     @Override
     public List<StudentDTO> getOwners(Long vmId) {
-        if (!vmRepository.existsById(vmId))
-            throw new VmNotFoundException("The vm with id " + vmId + " does not exist");
+        Vm vm = entityLoader.loadVm(vmId);
 
         authService.checkAuthorizationForVm(vmId);
 
-        return vmRepository.getOne(vmId).getOwners()
+        return vm.getOwners()
                 .stream()
-                .map(owner -> modelMapper.map(owner, StudentDTO.class))
+                .map(owner -> dtoMapper.toStudentDTO(owner))
                 .collect(Collectors.toList());
     }
 
     @Override
     public Optional<TeamDTO> getTeam(Long vmId) {
-        if (!vmRepository.existsById(vmId))
+        Optional<Vm> vmOpt = vmRepository.findById(vmId);
+        if (!vmOpt.isPresent())
             return Optional.empty();
 
         authService.checkAuthorizationForVm(vmId);
 
-        return Optional.of(vmRepository.getOne(vmId).getTeam())
-                .map(team -> modelMapper.map(team, TeamDTO.class));
+        return vmOpt.map(Vm::getTeam)
+                .map(team -> dtoMapper.toTeamDTO(team));
     }
 
     @Override
-    public List<VmModelDTO> getAllVmModels() {
-        return vmModelRepository.findAll()
+    public List<VmModelDTO> getAllVmModels(Long afterId, int limit) {
+        return vmModelRepository.findAllAfter(afterId != null ? afterId : 0L, PageRequest.of(0, limit))
                 .stream()
-                .map(vmModel -> modelMapper.map(vmModel, VmModelDTO.class))
+                .map(vmModel -> dtoMapper.toVmModelDTO(vmModel))
                 .collect(Collectors.toList());
     }
 
     @Override
-    public List<VmDTO> getAllVms() {
-        return vmRepository.findAll()
+    public List<VmDTO> getAllVms(Long afterId, int limit) {
+        return vmRepository.findAllAfter(afterId != null ? afterId : 0L, PageRequest.of(0, limit))
                 .stream()
-                .map(vm -> modelMapper.map(vm, VmDTO.class))
+                .map(this::toVmDTO)
                 .collect(Collectors.toList());
     }
 
     @Override
     public Optional<VmModelDTO> getCourseVmModel(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named " + courseName + " does not exist");
+        Course course = entityLoader.loadCourse(courseName);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        Optional<VmModel> vmModel = vmModelRepository.findByCourseName(courseName);
-        if(!vmModel.isPresent())
-            return Optional.empty();
-
-        return vmModel.map(v -> modelMapper.map(v, VmModelDTO.class));
+        //the model is loaded together with its course
+        return Optional.ofNullable(course.getVmModel())
+                .map(v -> dtoMapper.toVmModelDTO(v));
     }
 
     @Override
     public Optional<CourseDTO> getVmModelCourse(Long vmModelId) {
-        if(!vmModelRepository.existsById(vmModelId))
-            throw new CourseNotFoundException("The vm model with id '" + vmModelId + "' does not exist");
-
-        authService.checkAuthorizationForCourse(vmModelRepository.getOne(vmModelId).getCourse().getName());
+        VmModel vmModel = vmModelRepository.findById(vmModelId)
+                .orElseThrow(() -> new CourseNotFoundException("The vm model with id '" + vmModelId + "' does not exist"));
 
-        Optional<Course> course = courseRepository.findById(vmModelRepository.getOne(vmModelId).getCourse().getName());
-        if(!course.isPresent())
-            return Optional.empty();
+        authService.checkAuthorizationForCourse(vmModel.getCourse().getName());
 
-        return course.map(c -> modelMapper.map(c, CourseDTO.class));
+        return Optional.ofNullable(vmModel.getCourse())
+                .map(c -> dtoMapper.toCourseDTO(c));
     }
 
     @Override
     public Optional<ProfessorDTO> getVmModelProfessor(Long vmModelId) {
-        if(!vmModelRepository.existsById(vmModelId))
-            throw new CourseNotFoundException("The vm model with id '" + vmModelId + "' does not exist");
+        VmModel vmModel = vmModelRepository.findById(vmModelId)
+                .orElseThrow(() -> new CourseNotFoundException("The vm model with id '" + vmModelId + "' does not exist"));
 
-        authService.checkAuthorizationForCourse(vmModelRepository.getOne(vmModelId).getCourse().getName());
-
-        Optional<Professor> professor = userRepository.findProfessorById(vmModelRepository.getOne(vmModelId).getProfessor().getId());
-        if(!professor.isPresent())
-            return Optional.empty();
+        authService.checkAuthorizationForCourse(vmModel.getCourse().getName());
 
-        return professor.map(p -> modelMapper.map(p, ProfessorDTO.class));
+        return Optional.ofNullable(vmModel.getProfessor())
+                .map(p -> dtoMapper.toProfessorDTO(p));
     }
 
     @Override
     public List<VmDTO> getVmModelVms(Long vmModelId) {
         return vmRepository.findAllByVmModelId(vmModelId)
                 .stream()
-                .map(vm -> modelMapper.map(vm, VmDTO.class))
+                .map(this::toVmDTO)
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<VmDTO> getCourseVms(String courseName) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named " + courseName + " does not exist");
+        Course course = entityLoader.loadCourse(courseName);
 
-        Optional<VmModel> vmModelOpt = vmModelRepository.findByCourseName(courseName);
-        return vmModelOpt.map(vmModel -> vmModel.getVms()
+        return Optional.ofNullable(course.getVmModel()).map(vmModel -> vmModel.getVms()
                 .stream()
-                .map(v -> modelMapper.map(v, VmDTO.class))
+                .map(this::toVmDTO)
                 .collect(Collectors.toList())).orElseGet(ArrayList::new);
     }
 
     @Override
     public List<VmDTO> getTeamVms(Long teamId) {
-        Optional<Team> teamOpt = teamRepository.findById(teamId);
-        if(!teamOpt.isPresent())
-            throw new TeamNotFoundException("The team with id " + teamId + " does not exist");
+        Team team = teamRepository.findWithVmsById(teamId)
+                .orElseThrow(() -> new TeamNotFoundException("The team with id " + teamId + " does not exist"));
 
-        Team team = teamOpt.get();
         authService.checkAuthorizationForCourse(team.getCourse().getName());
 
         return team
                 .getVms()
                 .stream()
-                .map(v -> modelMapper.map(v, VmDTO.class))
+                .map(this::toVmDTO)
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<VmModelDTO> getProfessorVmModels(String professorId) {
-        if (!userRepository.professorExistsById(professorId))
-            throw new StudentNotFoundException("The professor with id '" + professorId + "' does not exists");
-
-        return userRepository.getProfessorById(professorId).getVmModels()
+        return entityLoader.loadProfessor(professorId).getVmModels()
                 .stream()
-                .map(v -> modelMapper.map(v, VmModelDTO.class))
+                .map(v -> dtoMapper.toVmModelDTO(v))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<AssignmentDTO> getProfessorAssignments(String professorId) {
-        if (!userRepository.professorExistsById(professorId))
-            throw new StudentNotFoundException("The professor with id '" + professorId + "' does not exists");
-
-        return userRepository.getProfessorById(professorId).getAssignments()
+        return entityLoader.loadProfessor(professorId).getAssignments()
                 .stream()
-                .map(a -> modelMapper.map(a, AssignmentDTO.class))
+                .map(a -> dtoMapper.toAssignmentDTO(a))
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public SseEmitter subscribeToVms(List<Long> vmIds) {
+        Map<Long, Boolean> currentStates = new HashMap<>();
+        for(Long vmId : vmIds) {
+            if(!vmRepository.existsById(vmId))
+                throw vmNotFound(vmId);
+
+            authService.checkAuthorizationForVm(vmId);
+
+            currentStates.put(vmId, vmStateRegistry.isActive(vmId));
+        }
+
+        return vmEventBroadcaster.subscribe(currentStates);
+    }
+
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
     public Long createVm(VmDTO vmDTO, String studentId, Long teamId, boolean allOwners) {
-        if(!teamRepository.existsById(teamId))
-            throw new TeamNotFoundException("The team with id " + teamId + " does not exist");
-        if(!userRepository.studentExistsById(studentId))
-            throw new StudentNotFoundException("The student with id " + studentId + " does not exist");
+        Team team = entityLoader.loadTeam(teamId);
+        Student creator = entityLoader.loadStudent(studentId);
 
-        Team team = teamRepository.getOne(teamId);
         authService.checkAuthorizationForCourse(team.getCourse().getName());
 
-        List<Vm> teamVms = team.getVms();
         VmModel vmModel = team.getCourse().getVmModel();
 
         //check if the course to which the team belongs has no vmModel yet
@@ -249,13 +245,12 @@ public class VmServiceImpl implements VmService {
             throw new VmModelNotFoundException("There is no VmModel for this course yet");
 
         //check number of vms and resources constraints
-        if(teamVms.size() >= vmModel.getMaxTotVm() ||
-            resourcesExceeded(teamVms, vmModel, vmDTO.getVCPU(), vmDTO.getRAM(), vmDTO.getDisk()))
+        if(vmDTO.getVCPU() < 0 || vmDTO.getRAM() < 0 || vmDTO.getDisk() < 0 ||
+            !teamQuotaLedger.reserve(teamId, vmModel, vmDTO.getVCPU(), vmDTO.getRAM(), vmDTO.getDisk(), 1))
             return 0L;
 
         //create VM
-        Vm vm = modelMapper.map(vmDTO, Vm.class);
-        Student creator = userRepository.getStudentById(studentId);
+        Vm vm = dtoMapper.toVm(vmDTO);
         vm.setCreator(creator);
         if (allOwners)
             team.getStudents().forEach(vm::addOwner);
@@ -267,45 +262,48 @@ public class VmServiceImpl implements VmService {
         vm.setContent(vmModel.getOs() + "_v0");
 
         vmRepository.saveAndFlush(vm);
+        vmStateRegistry.registerAfterCommit(vm.getId(), teamId);
         return vm.getId();
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
+    @RetryOnConflict
     public void removeVm(Long vmId) {
-        if(!vmRepository.existsById(vmId))
-            throw new VmNotFoundException("The vm with id " + vmId + " does not exist");
+        Vm curVm = entityLoader.loadVm(vmId);
 
         authService.checkAuthorizationForVm(vmId, true);
 
-        Vm curVm = vmRepository.getOne(vmId);
-        if(curVm.isActive())
+        if(vmStateRegistry.isActive(vmId))
             throw new VmIsActiveException("The vm with id " + vmId + " cannot be deleted");
 
         //remove vm
-        vmRepository.deleteById(vmId);
+        teamQuotaLedger.release(curVm.getTeam().getId(), curVm.getVCPU(), curVm.getRAM(), curVm.getDisk(), 1);
+        vmRepository.delete(curVm);
         vmRepository.flush();
+        membershipIndex.invalidateVm(vmId);
+        vmStateRegistry.unregisterAfterCommit(vmId);
+
+        eventPublisher.publishEvent(new VmEvent(vmId, VmEvent.VmEventType.REMOVED));
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_STUDENT')")
+    @RetryOnConflict
     public boolean editVmResources(Long vmId, int vCPU, int ram, int disk) {
-        if(!vmRepository.existsById(vmId))
-            throw new VmNotFoundException("The vm with id " + vmId + " does not exist");
+        Vm curVm = entityLoader.loadVm(vmId);
 
         authService.checkAuthorizationForVm(vmId, true);
 
-        //check resources constraints
-        Vm curVm = vmRepository.getOne(vmId);
-        curVm.setVCPU(0);
-        curVm.setRAM(0);
-        curVm.setDisk(0);
-        if(resourcesExceeded(curVm.getTeam().getVms(), curVm.getVmModel(), vCPU, ram, disk))
-            return false;
-
-        if(curVm.isActive())
+        if(vmStateRegistry.isActive(vmId))
             throw new VmIsActiveException("The vm with id " + vmId + " cannot be edited");
 
+        //check resources constraints, only the difference with the current resources is reserved
+        if(vCPU < 0 || ram < 0 || disk < 0 ||
+            !teamQuotaLedger.reserve(curVm.getTeam().getId(), curVm.getVmModel(),
+                    vCPU - curVm.getVCPU(), ram - curVm.getRAM(), disk - curVm.getDisk(), 0))
+            return false;
+
         //edit vm resources
         curVm.setVCPU(vCPU);
         curVm.setRAM(ram);
@@ -318,10 +316,8 @@ public class VmServiceImpl implements VmService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean editVmModelSettings(Long vmModelId, VmModelDTO vmModelDTO) {
-        if(!vmModelRepository.existsById(vmModelId))
-            throw new VmNotFoundException("The vm model with id " + vmModelId + " does not exist");
-
-        VmModel curVmModel = vmModelRepository.getOne(vmModelId);
+        VmModel curVmModel = vmModelRepository.findById(vmModelId)
+                .orElseThrow(() -> new VmNotFoundException("The vm model with id " + vmModelId + " does not exist"));
 
         authService.checkAuthorizationForCourse(curVmModel.getCourse().getName());
 
@@ -352,13 +348,19 @@ public class VmServiceImpl implements VmService {
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public void removeVmModel(Long vmModelId) {
-        if(!vmModelRepository.existsById(vmModelId))
-            throw new VmModelNotFoundException("The vm model with id " + vmModelId + " does not exist");
-
-        VmModel vmModel = vmModelRepository.getOne(vmModelId);
+        VmModel vmModel = vmModelRepository.findById(vmModelId)
+                .orElseThrow(() -> new VmModelNotFoundException("The vm model with id " + vmModelId + " does not exist"));
 
         authService.checkAuthorizationForCourse(vmModel.getCourse().getName());
 
+        //vms are removed in cascade with their model
+        vmModel.getVms().forEach(vm -> {
+            teamQuotaLedger.evict(vm.getTeam().getId());
+            membershipIndex.invalidateVm(vm.getId());
+            vmStateRegistry.unregisterAfterCommit(vm.getId());
+            eventPublisher.publishEvent(new VmEvent(vm.getId(), VmEvent.VmEventType.REMOVED));
+        });
+
         //remove vmModel
         vmModel.setProfessor(null);
         vmModel.setCourse(null);
@@ -368,96 +370,64 @@ public class VmServiceImpl implements VmService {
     }
 
     @Override
+    @RetryOnConflict
     public void changeVmContentRandom(Long vmId) {
-        if(!vmRepository.existsById(vmId))
-            throw new VmNotFoundException("The vm with id " + vmId + " does not exist");
-
-        Vm vm = vmRepository.getOne(vmId);
+        Vm vm = entityLoader.loadVm(vmId);
         Random random = new Random();
         vm.setContent(vm.getVmModel().getOs() + "_v" + (random.nextInt(6) + 1));
 
         vmRepository.saveAndFlush(vm);
     }
 
-    private boolean resourcesExceeded(List<Vm> teamVms, VmModel vmModel, int vCPU, int ram, int disk) {
-        int totRam = 0, totDisk = 0, totVCpu = 0;
-
-        for(Vm v : teamVms) {
-            totRam += v.getRAM();
-            totDisk += v.getDisk();
-            totVCpu += v.getVCPU();
-        }
-
-        return ram < 0 || disk < 0 || vCPU < 0 || totRam + ram > vmModel.getMaxRAM() ||
-                totDisk + disk > vmModel.getMaxDisk() || totVCpu + vCPU > vmModel.getMaxVCPU();
+    private VmDTO toVmDTO(Vm vm) {
+        VmDTO vmDTO = dtoMapper.toVmDTO(vm);
+        //the vm table may lag behind the registry
+        vmDTO.setActive(vmStateRegistry.isActive(vm.getId()));
+        return vmDTO;
     }
 
     @Override
     public boolean powerOnVm(Long vmId) {
-        if(!vmRepository.existsById(vmId))
-            throw new VmNotFoundException("The vm with id " + vmId + " does not exist");
+        Vm vm = entityLoader.loadVm(vmId);
 
         authService.checkAuthorizationForVm(vmId, true);
 
-        //check if vm is already active
-        Vm vm = vmRepository.getOne(vmId);
-        if(vm.isActive())
-            return false;
-
-        //get number of active vms for the group to which vm belongs
-        int nActiveVMs = 0;
-        for(Vm v : vm.getTeam().getVms()) {
-            if(v.isActive())
-                nActiveVMs++;
-        }
-
-        //check max number of active vms constraint
-        if(nActiveVMs >= vm.getVmModel().getMaxActiveVm())
+        //check if vm is already active and max number of active vms constraint
+        if(!vmStateRegistry.powerOn(vmId, vm.getVmModel().getMaxActiveVm()))
             return false;
 
-        //set vm as active
-        vm.setActive(true);
-
-        vmRepository.saveAndFlush(vm);
+        eventPublisher.publishEvent(new VmEvent(vmId, VmEvent.VmEventType.POWERED_ON));
         return true;
     }
 
     @Override
     public boolean powerOffVm(Long vmId) {
         if(!vmRepository.existsById(vmId))
-            throw new VmNotFoundException("The vm with id " + vmId + " does not exist");
+            throw vmNotFound(vmId);
 
         authService.checkAuthorizationForVm(vmId, true);
 
         //check if vm is already off
-        Vm vm = vmRepository.getOne(vmId);
-        if(!vm.isActive())
+        if(!vmStateRegistry.powerOff(vmId))
             return false;
 
-        //set vm as active
-        vm.setActive(false);
-
-        vmRepository.saveAndFlush(vm);
+        eventPublisher.publishEvent(new VmEvent(vmId, VmEvent.VmEventType.POWERED_OFF));
         return true;
     }
 
     @Override
     @PreAuthorize("hasRole('ROLE_PROFESSOR')")
     public boolean setVmModelToCourse(VmModelDTO vmModelDTO, String courseName, String professorId) {
-        if(!courseRepository.existsById(courseName))
-            throw new CourseNotFoundException("The course named " + courseName + " does not exist");
-        if(!userRepository.professorExistsById(professorId))
-            throw new ProfessorNotFoundException("The professor with id " + professorId + " does not exist");
+        Course course = entityLoader.loadCourse(courseName);
+        Professor professor = entityLoader.loadProfessor(professorId);
 
         authService.checkAuthorizationForCourse(courseName);
 
-        //check if there is already a vmModel for that course
-        if(vmModelRepository.existsByCourseName(courseName))
+        //check if there is already a vmModel for that course, loaded with the course
+        if(course.getVmModel() != null)
             return false;
 
-        VmModel vmModel = modelMapper.map(vmModelDTO, VmModel.class);
-        Professor professor = userRepository.getProfessorById(professorId);
-        Course course = courseRepository.getOne(courseName);
+        VmModel vmModel = dtoMapper.toVmModel(vmModelDTO);
 
         //set vmModel to course
         vmModel.setCourse(course);
@@ -0,0 +1,204 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.repositories.VmRepository;
+import it.polito.ai.virtualLabs.services.exceptions.vm.VmNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component
+public class VmStateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(VmStateRegistry.class);
+
+    private static final int FLUSH_BATCH_SIZE = 500;
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+
+    @Autowired
+    VmRepository vmRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    //authoritative power state of every vm, the vm table is updated in background
+    private final Map<Long, VmState> vms = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> activeVmsByTeam = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyVms = ConcurrentHashMap.newKeySet();
+
+    private static class VmState {
+        private final Long teamId;
+        private boolean active;
+
+        private VmState(Long teamId, boolean active) {
+            this.teamId = teamId;
+            this.active = active;
+        }
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        vms.clear();
+        activeVmsByTeam.clear();
+        vmRepository.findAllStates().forEach(this::load);
+    }
+
+    //a vm rolled back with its transaction never reaches the registry, one already loaded from the table is kept
+    public void registerAfterCommit(Long vmId, Long teamId) {
+        afterCommit(() -> load(vmId, teamId, false));
+    }
+
+    //until the deletion commits the vm keeps its entry, so a concurrent lookup does not load it again from the table
+    public void unregisterAfterCommit(Long vmId) {
+        afterCommit(() -> unregister(vmId));
+    }
+
+    public boolean isActive(Long vmId) {
+        VmState state = state(vmId);
+        synchronized (state) {
+            return state.active;
+        }
+    }
+
+    public int getActiveVmCount(Long teamId) {
+        return counter(teamId).get();
+    }
+
+    public int getActiveVmCount() {
+        return activeVmsByTeam.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    public boolean powerOn(Long vmId, int maxActiveVm) {
+        VmState state = state(vmId);
+        synchronized (state) {
+            if(state.active)
+                return false;
+
+            //reserve a slot among the active vms of the team
+            AtomicInteger activeVms = counter(state.teamId);
+            int current;
+            do {
+                current = activeVms.get();
+                if(current >= maxActiveVm)
+                    return false;
+            } while(!activeVms.compareAndSet(current, current + 1));
+
+            state.active = true;
+        }
+        dirtyVms.add(vmId);
+        return true;
+    }
+
+    public boolean powerOff(Long vmId) {
+        VmState state = state(vmId);
+        synchronized (state) {
+            if(!state.active)
+                return false;
+
+            state.active = false;
+            counter(state.teamId).decrementAndGet();
+        }
+        dirtyVms.add(vmId);
+        return true;
+    }
+
+    @Scheduled(fixedDelay = FLUSH_DELAY_MILLIS)
+    public void flush() {
+        if(dirtyVms.isEmpty())
+            return;
+
+        List<Long> poweredOn = new ArrayList<>();
+        List<Long> poweredOff = new ArrayList<>();
+        Iterator<Long> it = dirtyVms.iterator();
+        while(it.hasNext()) {
+            Long vmId = it.next();
+            it.remove();
+            VmState state = vms.get(vmId);
+            if(state == null)
+                continue;
+            synchronized (state) {
+                (state.active ? poweredOn : poweredOff).add(vmId);
+            }
+        }
+
+        try {
+            transactionTemplate.execute(status -> {
+                for(int i = 0; i < poweredOn.size(); i += FLUSH_BATCH_SIZE)
+                    vmRepository.updateActive(poweredOn.subList(i, Math.min(i + FLUSH_BATCH_SIZE, poweredOn.size())), true);
+                for(int i = 0; i < poweredOff.size(); i += FLUSH_BATCH_SIZE)
+                    vmRepository.updateActive(poweredOff.subList(i, Math.min(i + FLUSH_BATCH_SIZE, poweredOff.size())), false);
+                return null;
+            });
+        } catch (RuntimeException ex) {
+            //keep the changes for the next round
+            dirtyVms.addAll(poweredOn);
+            dirtyVms.addAll(poweredOff);
+            log.error("Error in writing the states of {} vms, retrying at the next flush", poweredOn.size() + poweredOff.size(), ex);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private VmState state(Long vmId) {
+        VmState state = vms.get(vmId);
+        if(state != null)
+            return state;
+
+        //the vm was created after the last rebuild without passing through the registry
+        load(vmRepository.findState(vmId)
+                .orElseThrow(() -> new VmNotFoundException("The vm with id " + vmId + " does not exist")));
+        return vms.get(vmId);
+    }
+
+    private void load(VmRepository.StoredVmState row) {
+        load(row.getId(), row.getTeamId(), row.isActive());
+    }
+
+    private void unregister(Long vmId) {
+        VmState state = vms.remove(vmId);
+        if(state == null)
+            return;
+
+        synchronized (state) {
+            if(state.active)
+                counter(state.teamId).decrementAndGet();
+            state.active = false;
+        }
+        dirtyVms.remove(vmId);
+    }
+
+    private void load(Long vmId, Long teamId, boolean active) {
+        if(vms.putIfAbsent(vmId, new VmState(teamId, active)) == null && active)
+            counter(teamId).incrementAndGet();
+    }
+
+    private AtomicInteger counter(Long teamId) {
+        return activeVmsByTeam.computeIfAbsent(teamId, id -> new AtomicInteger());
+    }
+
+    private void afterCommit(Runnable action) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
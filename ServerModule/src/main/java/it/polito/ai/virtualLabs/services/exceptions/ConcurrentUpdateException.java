@@ -0,0 +1,10 @@
+package it.polito.ai.virtualLabs.services.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class ConcurrentUpdateException extends ResponseStatusException {
+    public ConcurrentUpdateException(String message, Throwable cause) {
+        super(HttpStatus.CONFLICT, message, cause);
+    }
+}
@@ -0,0 +1,131 @@
+package it.polito.ai.virtualLabs;
+
+import it.polito.ai.virtualLabs.entities.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+
+//persists the entities the tests and benchmarks seed their database with, to be called inside a transaction
+public class TestFixture {
+
+    private final EntityManager entityManager;
+
+    public TestFixture(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    public Course course(String name, String acronym, int minTeamSize, int maxTeamSize) {
+        Course course = new Course();
+        course.setName(name);
+        course.setAcronym(acronym);
+        course.setMinTeamSize(minTeamSize);
+        course.setMaxTeamSize(maxTeamSize);
+        course.setEnabled(true);
+        entityManager.persist(course);
+        return course;
+    }
+
+    public Professor professor(String id, Course... courses) {
+        Professor p = new Professor();
+        fill(p, id, "ROLE_PROFESSOR");
+        for(Course course : courses)
+            p.addCourse(course);
+        entityManager.persist(p);
+        return p;
+    }
+
+    public Student student(String id, Course... courses) {
+        Student s = new Student();
+        fill(s, id, "ROLE_STUDENT");
+        for(Course course : courses)
+            s.addCourse(course);
+        entityManager.persist(s);
+        return s;
+    }
+
+    public VmModel vmModel(Course course, Professor p, int maxVCPU, int maxRAM, int maxDisk, int maxTotVm, int maxActiveVm) {
+        VmModel vmModel = new VmModel();
+        vmModel.setName("model");
+        vmModel.setOs("ubuntu_20_4");
+        vmModel.setMaxVCPU(maxVCPU);
+        vmModel.setMaxRAM(maxRAM);
+        vmModel.setMaxDisk(maxDisk);
+        vmModel.setMaxTotVm(maxTotVm);
+        vmModel.setMaxActiveVm(maxActiveVm);
+        vmModel.setCourse(course);
+        vmModel.setProfessor(p);
+        entityManager.persist(vmModel);
+        return vmModel;
+    }
+
+    public Team team(String name, Course course, Iterable<Student> members) {
+        Team team = new Team();
+        team.setName(name);
+        team.setCourse(course);
+        for(Student s : members)
+            team.addMember(s);
+        entityManager.persist(team);
+        return team;
+    }
+
+    //owned by the creator alone or by the whole team, as the vm service creates them
+    public Vm vm(Team team, VmModel vmModel, Student creator, boolean allOwners, int vCPU, int ram, int disk) {
+        Vm vm = new Vm();
+        vm.setVCPU(vCPU);
+        vm.setRAM(ram);
+        vm.setDisk(disk);
+        vm.setContent(vmModel.getOs() + "_v0");
+        vm.setCreator(creator);
+        if(allOwners)
+            team.getStudents().forEach(vm::addOwner);
+        else
+            vm.addOwner(creator);
+        vm.setTeam(team);
+        vm.setVmModel(vmModel);
+        entityManager.persist(vm);
+        return vm;
+    }
+
+    public Assignment assignment(String name, String content, Course course, Professor p, LocalDateTime releaseDate, LocalDateTime expiryDate) {
+        Assignment assignment = new Assignment();
+        assignment.setName(name);
+        assignment.setContent(content);
+        assignment.setReleaseDate(releaseDate);
+        assignment.setExpiryDate(expiryDate);
+        assignment.setCourse(course);
+        assignment.setProfessor(p);
+        entityManager.persist(assignment);
+        return assignment;
+    }
+
+    //an authenticated user as the security context holds it, without reading it from the db
+    public static User principal(String id, String role) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username(id, role));
+        user.getRoles().add(role);
+        return user;
+    }
+
+    public static Authentication authentication(String id, String role) {
+        User user = principal(id, role);
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+
+    public static String username(String id, String role) {
+        return id + (role.equals("ROLE_STUDENT") ? "@studenti.polito.it" : "@polito.it");
+    }
+
+    private static void fill(User user, String id, String role) {
+        user.setId(id);
+        user.setUsername(username(id, role));
+        user.setPassword("password");
+        user.setName("Name");
+        user.setSurname("Surname");
+        user.setPhoto(id);
+        user.setRegistered(true);
+        user.getRoles().add(role);
+    }
+}
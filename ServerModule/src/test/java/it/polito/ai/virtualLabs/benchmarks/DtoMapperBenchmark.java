@@ -0,0 +1,99 @@
+package it.polito.ai.virtualLabs.benchmarks;
+
+import it.polito.ai.virtualLabs.dtos.StudentDTO;
+import it.polito.ai.virtualLabs.dtos.VmDTO;
+import it.polito.ai.virtualLabs.entities.Student;
+import it.polito.ai.virtualLabs.entities.Vm;
+import it.polito.ai.virtualLabs.services.DtoMapper;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//compares ModelMapper with DtoMapper on lists as big as the ones of getAllStudents and getVmModelVms
+//run the main method from the test classpath after mvn test-compile
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DtoMapperBenchmark {
+
+    @Param({"100", "1000"})
+    int size;
+
+    private final ModelMapper modelMapper = new ModelMapper();
+    private final DtoMapper dtoMapper = new DtoMapper();
+
+    private List<Student> students;
+    private List<Vm> vms;
+
+    @Setup
+    public void setup() {
+        students = new ArrayList<>();
+        vms = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            Student student = new Student();
+            student.setId("s" + i);
+            student.setUsername("s" + i + "@studenti.polito.it");
+            student.setPassword("password");
+            student.setName("Name" + i);
+            student.setSurname("Surname" + i);
+            student.setPhoto("photo" + i);
+            students.add(student);
+
+            Vm vm = new Vm();
+            vm.setId((long) i);
+            vm.setVCPU(2);
+            vm.setRAM(4);
+            vm.setDisk(20);
+            vm.setContent("ubuntu_20_4_v0");
+            vm.addOwner(student);
+            vms.add(vm);
+        }
+    }
+
+    @Benchmark
+    public List<StudentDTO> studentsModelMapper() {
+        List<StudentDTO> dtos = new ArrayList<>(students.size());
+        for(Student s : students)
+            dtos.add(modelMapper.map(s, StudentDTO.class));
+        return dtos;
+    }
+
+    @Benchmark
+    public List<StudentDTO> studentsDtoMapper() {
+        List<StudentDTO> dtos = new ArrayList<>(students.size());
+        for(Student s : students)
+            dtos.add(dtoMapper.toStudentDTO(s));
+        return dtos;
+    }
+
+    @Benchmark
+    public List<VmDTO> vmsModelMapper() {
+        List<VmDTO> dtos = new ArrayList<>(vms.size());
+        for(Vm vm : vms)
+            dtos.add(modelMapper.map(vm, VmDTO.class));
+        return dtos;
+    }
+
+    @Benchmark
+    public List<VmDTO> vmsDtoMapper() {
+        List<VmDTO> dtos = new ArrayList<>(vms.size());
+        for(Vm vm : vms)
+            dtos.add(dtoMapper.toVmDTO(vm));
+        return dtos;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DtoMapperBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
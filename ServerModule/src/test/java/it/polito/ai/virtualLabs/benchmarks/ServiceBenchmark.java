@@ -0,0 +1,219 @@
+package it.polito.ai.virtualLabs.benchmarks;
+
+import it.polito.ai.virtualLabs.TestFixture;
+import it.polito.ai.virtualLabs.VirtualLabsApplication;
+import it.polito.ai.virtualLabs.dtos.AssignmentDTO;
+import it.polito.ai.virtualLabs.dtos.VmDTO;
+import it.polito.ai.virtualLabs.entities.*;
+import it.polito.ai.virtualLabs.services.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.mail.MessagingException;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//service hot paths against an in-memory H2 database seeded with 200 courses, 10k students and 4k vms
+//the application runs with the benchmark profile (src/test/resources/application-benchmark.properties)
+//run with mvn -Pbenchmarks test, or the main method from the test classpath after mvn test-compile
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+
+    private static final int COURSES = 200;
+    private static final int STUDENTS = 10000;
+    private static final int ENROLLED_PER_COURSE = 250;
+    //consecutive courses share part of their students
+    private static final int COURSE_STRIDE = 50;
+    private static final int TEAMS_PER_COURSE = 10;
+    private static final int TEAM_SIZE = 3;
+    private static final int VMS_PER_TEAM = 2;
+    private static final int ASSIGNMENTS_PER_COURSE = 5;
+
+    private ConfigurableApplicationContext context;
+    private AuthService authService;
+    private LabService labService;
+    private TeamService teamService;
+    private VmService vmService;
+
+    private Authentication student;
+    private Authentication proposer;
+    private Authentication professor;
+
+    //the benchmarked student is the first member of the first team of the first course
+    private String courseName;
+    private String studentId;
+    private String classmateId;
+    private Long teamId;
+    private Long vmId;
+    private List<String> proposalMemberIds;
+    private String csv;
+    private long proposals;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(VirtualLabsApplication.class)
+                .profiles("benchmark")
+                .run();
+        authService = context.getBean(AuthService.class);
+        labService = context.getBean(LabService.class);
+        teamService = context.getBean(TeamService.class);
+        vmService = context.getBean(VmService.class);
+
+        context.getBean(TransactionTemplate.class).execute(status -> {
+            seed(context.getBean(EntityManager.class));
+            return null;
+        });
+        context.getBean(VmStateRegistry.class).rebuild();
+
+        courseName = courseName(0);
+        studentId = studentId(0);
+        classmateId = studentId(ENROLLED_PER_COURSE - 1);
+        //enrolled in the first course but not part of any of its teams
+        proposalMemberIds = Arrays.asList(studentId(TEAMS_PER_COURSE * TEAM_SIZE),
+                studentId(TEAMS_PER_COURSE * TEAM_SIZE + 1), studentId(TEAMS_PER_COURSE * TEAM_SIZE + 2));
+        teamId = context.getBean(EntityManager.class)
+                .createQuery("SELECT t.id FROM Team t WHERE t.name = :name", Long.class)
+                .setParameter("name", courseName + "_team0")
+                .getSingleResult();
+        vmId = context.getBean(EntityManager.class)
+                .createQuery("SELECT MIN(v.id) FROM Vm v WHERE v.team.id = :teamId", Long.class)
+                .setParameter("teamId", teamId)
+                .getSingleResult();
+
+        StringBuilder csvBuilder = new StringBuilder("id,username,name,surname\n");
+        for(int i = 0; i < ENROLLED_PER_COURSE; i++)
+            csvBuilder.append(studentId(i * 7)).append(',').append(studentId(i * 7)).append("@studenti.polito.it,Name,Surname\n");
+        csv = csvBuilder.toString();
+
+        student = TestFixture.authentication(studentId, "ROLE_STUDENT");
+        proposer = TestFixture.authentication(proposalMemberIds.get(0), "ROLE_STUDENT");
+        professor = TestFixture.authentication(professorId(0), "ROLE_PROFESSOR");
+    }
+
+    @TearDown
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        context.close();
+    }
+
+    @Benchmark
+    public Long createAndRemoveVm() {
+        SecurityContextHolder.getContext().setAuthentication(student);
+        VmDTO vmDTO = new VmDTO();
+        vmDTO.setVCPU(1);
+        vmDTO.setRAM(1);
+        vmDTO.setDisk(1);
+        Long id = vmService.createVm(vmDTO, studentId, teamId, false);
+        vmService.removeVm(id);
+        return id;
+    }
+
+    @Benchmark
+    public boolean powerOnAndOffVm() {
+        SecurityContextHolder.getContext().setAuthentication(student);
+        return vmService.powerOnVm(vmId) & vmService.powerOffVm(vmId);
+    }
+
+    @Benchmark
+    public void checkAuthorizationForStudentInfo() {
+        SecurityContextHolder.getContext().setAuthentication(student);
+        authService.checkAuthorizationForStudentInfo(classmateId);
+    }
+
+    @Benchmark
+    public long checkCsv() throws IOException {
+        SecurityContextHolder.getContext().setAuthentication(professor);
+        Path result = teamService.checkCsv(new StringReader(csv), courseName);
+        try {
+            return Files.size(result);
+        } finally {
+            Files.delete(result);
+        }
+    }
+
+    @Benchmark
+    public Long proposeAndDeleteTeam() throws MessagingException {
+        SecurityContextHolder.getContext().setAuthentication(proposer);
+        Long id = teamService.proposeTeam(courseName, "proposal" + proposals++, proposalMemberIds,
+                proposalMemberIds.get(0) + "@studenti.polito.it");
+        teamService.deleteTeamProposal(id);
+        return id;
+    }
+
+    @Benchmark
+    public List<AssignmentDTO> getCourseAssignments() {
+        SecurityContextHolder.getContext().setAuthentication(professor);
+        return labService.getCourseAssignments(courseName);
+    }
+
+    private void seed(EntityManager em) {
+        TestFixture fixture = new TestFixture(em);
+        List<Student> students = new ArrayList<>(STUDENTS);
+        for(int i = 0; i < STUDENTS; i++)
+            students.add(fixture.student(studentId(i)));
+
+        LocalDateTime now = LocalDateTime.now();
+        for(int c = 0; c < COURSES; c++) {
+            Course course = fixture.course(courseName(c), "C" + c, 2, 10);
+            Professor p = fixture.professor(professorId(c), course);
+            VmModel vmModel = fixture.vmModel(course, p, 64, 256, 1000, TEAM_SIZE * VMS_PER_TEAM, TEAM_SIZE);
+
+            List<Student> enrolled = new ArrayList<>(ENROLLED_PER_COURSE);
+            for(int i = 0; i < ENROLLED_PER_COURSE; i++) {
+                Student s = students.get((c * COURSE_STRIDE + i) % STUDENTS);
+                s.addCourse(course);
+                enrolled.add(s);
+            }
+
+            for(int t = 0; t < TEAMS_PER_COURSE; t++) {
+                Team team = fixture.team(course.getName() + "_team" + t, course, enrolled.subList(t * TEAM_SIZE, (t + 1) * TEAM_SIZE));
+                for(int v = 0; v < VMS_PER_TEAM; v++)
+                    fixture.vm(team, vmModel, team.getStudents().get(0), false, 2, 4, 20);
+            }
+
+            for(int a = 0; a < ASSIGNMENTS_PER_COURSE; a++)
+                fixture.assignment("assignment" + a, "Assignment " + a + " of " + course.getName(), course, p,
+                        now.minusDays(7), now.plusDays(7 * (a + 1)));
+        }
+        //no explicit flush: a second flush would compare the bags with their snapshots through the entities hashCode,
+        //which loops between Course and VmModel
+    }
+
+    private static String courseName(int c) {
+        return "course" + c;
+    }
+
+    private static String studentId(int i) {
+        return String.format("s%06d", i % STUDENTS);
+    }
+
+    private static String professorId(int c) {
+        return String.format("d%06d", c);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ServiceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,133 @@
+package it.polito.ai.virtualLabs.metrics;
+
+import it.polito.ai.virtualLabs.TestFixture;
+import it.polito.ai.virtualLabs.entities.*;
+import it.polito.ai.virtualLabs.services.VmStateRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+//every endpoint annotated with @SqlBudget must stay within its budget on a course with several teams,
+//so that an N+1 regression fails the build instead of showing up in production
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SqlBudgetTests {
+
+    private static final String COURSE = "budget";
+    private static final int STUDENTS = 12;
+    private static final int TEAMS = 4;
+    private static final int TEAM_SIZE = 3;
+    private static final int VMS_PER_TEAM = 2;
+    private static final int ASSIGNMENTS = 3;
+
+    @Autowired
+    MockMvc mockMvc;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    VmStateRegistry vmStateRegistry;
+
+    private User professor;
+    private User student;
+    private Long teamId;
+
+    @BeforeAll
+    void seed() {
+        transactionTemplate.execute(status -> {
+            TestFixture fixture = new TestFixture(entityManager);
+            Course course = fixture.course(COURSE, "B", 2, 10);
+            Professor p = fixture.professor("d000001", course);
+            VmModel vmModel = fixture.vmModel(course, p, 64, 256, 1000, 10, 5);
+
+            List<Student> students = new ArrayList<>();
+            for(int i = 0; i < STUDENTS; i++)
+                students.add(fixture.student(String.format("s%06d", i), course));
+
+            for(int t = 0; t < TEAMS; t++) {
+                Team team = fixture.team("team" + t, course, students.subList(t * TEAM_SIZE, (t + 1) * TEAM_SIZE));
+                for(int v = 0; v < VMS_PER_TEAM; v++)
+                    fixture.vm(team, vmModel, team.getStudents().get(v % TEAM_SIZE), true, 2, 4, 20);
+            }
+
+            for(int a = 0; a < ASSIGNMENTS; a++)
+                fixture.assignment("assignment" + a, "assignment" + a, course, p,
+                        LocalDateTime.now().minusDays(1), LocalDateTime.now().plusDays(a + 1));
+            return null;
+        });
+        vmStateRegistry.rebuild();
+
+        professor = TestFixture.principal("d000001", "ROLE_PROFESSOR");
+        student = TestFixture.principal("s000000", "ROLE_STUDENT");
+        teamId = entityManager.createQuery("SELECT t.id FROM Team t WHERE t.name = 'team0'", Long.class).getSingleResult();
+    }
+
+    Stream<String> professorEndpoints() {
+        return Stream.of(
+                "/API/courses/" + COURSE,
+                "/API/courses/" + COURSE + "/enrolled",
+                "/API/courses/" + COURSE + "/teamedUp",
+                "/API/courses/" + COURSE + "/notTeamedUp",
+                "/API/courses/" + COURSE + "/teams",
+                "/API/courses/" + COURSE + "/teamProposals",
+                "/API/courses/" + COURSE + "/assignments",
+                "/API/courses/" + COURSE + "/vmModel",
+                "/API/courses/" + COURSE + "/professors",
+                "/API/courses/" + COURSE + "/dashboard");
+    }
+
+    Stream<String> studentEndpoints() {
+        return Stream.of(
+                "/API/students/s000000/courses",
+                "/API/students/s000000/teams",
+                "/API/teams/{teamId}/members",
+                "/API/teams/{teamId}/vms",
+                "/API/courses/" + COURSE + "/dashboard");
+    }
+
+    @ParameterizedTest
+    @MethodSource("professorEndpoints")
+    void professorEndpointsStayWithinBudget(String path) throws Exception {
+        assertWithinBudget(path, professor);
+    }
+
+    @ParameterizedTest
+    @MethodSource("studentEndpoints")
+    void studentEndpointsStayWithinBudget(String path) throws Exception {
+        assertWithinBudget(path.replace("{teamId}", teamId.toString()), student);
+    }
+
+    private void assertWithinBudget(String path, User principal) throws Exception {
+        //the first request fills the in-memory caches, budgets are for the steady state
+        mockMvc.perform(get(path).with(user(principal))).andExpect(status().isOk());
+        MvcResult result = mockMvc.perform(get(path).with(user(principal))).andExpect(status().isOk()).andReturn();
+
+        Object budget = result.getRequest().getAttribute(SqlBudgetInterceptor.BUDGET_ATTRIBUTE);
+        Object statements = result.getRequest().getAttribute(SqlBudgetInterceptor.STATEMENTS_ATTRIBUTE);
+        assertNotNull(budget, path + " has no @SqlBudget");
+        assertTrue((Integer) statements <= (Integer) budget,
+                path + " ran " + statements + " statements, its budget is " + budget);
+    }
+}
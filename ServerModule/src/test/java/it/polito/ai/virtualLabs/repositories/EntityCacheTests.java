@@ -0,0 +1,139 @@
+package it.polito.ai.virtualLabs.repositories;
+
+import it.polito.ai.virtualLabs.TestFixture;
+import it.polito.ai.virtualLabs.dtos.CourseDTO;
+import it.polito.ai.virtualLabs.dtos.VmModelDTO;
+import it.polito.ai.virtualLabs.entities.*;
+import it.polito.ai.virtualLabs.services.TeamService;
+import it.polito.ai.virtualLabs.services.VmService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//read-mostly entities come from the second-level cache, and the services that change them are seen right after commit
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:cache;DB_CLOSE_DELAY=-1;MODE=MySQL")
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class EntityCacheTests {
+
+    private static final String PROFESSOR_ID = "d000100";
+
+    @Autowired
+    TeamService teamService;
+    @Autowired
+    VmService vmService;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    //course name -> id of its vm model
+    private final Map<String, Long> vmModels = new HashMap<>();
+
+    @BeforeAll
+    void seed() {
+        transactionTemplate.execute(status -> {
+            TestFixture fixture = new TestFixture(entityManager);
+            Professor p = fixture.professor(PROFESSOR_ID);
+            for(String name : new String[] { "read", "edit", "editModel", "removeModel" }) {
+                Course course = fixture.course(name, name, 2, 4);
+                p.addCourse(course);
+                fixture.vmModel(course, p, 8, 16, 1024, 4, 2);
+            }
+            return null;
+        });
+        entityManager.createQuery("SELECT m.course.name, m.id FROM VmModel m", Object[].class)
+                .getResultList()
+                .forEach(row -> vmModels.put((String) row[0], (Long) row[1]));
+    }
+
+    @BeforeEach
+    void authenticate() {
+        SecurityContextHolder.getContext().setAuthentication(TestFixture.authentication(PROFESSOR_ID, "ROLE_PROFESSOR"));
+    }
+
+    @AfterEach
+    void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void coursesAndVmModelsAreReadFromTheCache() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        long courseHits = statistics.getDomainDataRegionStatistics(Course.class.getName()).getHitCount();
+        long vmModelHits = statistics.getDomainDataRegionStatistics(VmModel.class.getName()).getHitCount();
+
+        for(int i = 0; i < 3; i++) {
+            assertTrue(teamService.getCourse("read").isPresent());
+            assertTrue(vmService.getVmModel(vmModels.get("read")).isPresent());
+        }
+
+        assertTrue(statistics.getDomainDataRegionStatistics(Course.class.getName()).getHitCount() >= courseHits + 3);
+        assertTrue(statistics.getDomainDataRegionStatistics(VmModel.class.getName()).getHitCount() >= vmModelHits + 3);
+    }
+
+    @Test
+    void editCourseReplacesTheCachedCourse() {
+        assertEquals(4, teamService.getCourse("edit").get().getMaxTeamSize());
+
+        CourseDTO courseDTO = new CourseDTO();
+        courseDTO.setName("edit");
+        courseDTO.setMinTeamSize(3);
+        courseDTO.setMaxTeamSize(6);
+        courseDTO.setInfo("info");
+        assertTrue(teamService.editCourse("edit", courseDTO));
+
+        CourseDTO course = teamService.getCourse("edit").get();
+        assertEquals(3, course.getMinTeamSize());
+        assertEquals(6, course.getMaxTeamSize());
+    }
+
+    @Test
+    void editVmModelSettingsReplacesTheCachedVmModel() {
+        Long vmModelId = vmModels.get("editModel");
+        assertEquals(8, vmService.getVmModel(vmModelId).get().getMaxVCPU());
+
+        VmModelDTO vmModelDTO = vmService.getVmModel(vmModelId).get();
+        vmModelDTO.setMaxVCPU(16);
+        vmModelDTO.setMaxRAM(32);
+        vmModelDTO.setMaxActiveVm(3);
+        assertTrue(vmService.editVmModelSettings(vmModelId, vmModelDTO));
+
+        VmModelDTO vmModel = vmService.getVmModel(vmModelId).get();
+        assertEquals(16, vmModel.getMaxVCPU());
+        assertEquals(32, vmModel.getMaxRAM());
+        assertEquals(3, vmModel.getMaxActiveVm());
+    }
+
+    @Test
+    void removeVmModelIsNotServedFromTheCache() {
+        Long vmModelId = vmModels.get("removeModel");
+        assertTrue(vmService.getCourseVmModel("removeModel").isPresent());
+        assertTrue(entityManagerFactory.getCache().contains(VmModel.class, vmModelId));
+
+        //read-write regions keep a lock in place of a removed entry until it expires, so the entry is not looked at
+        vmService.removeVmModel(vmModelId);
+
+        assertFalse(vmService.getVmModel(vmModelId).isPresent());
+        assertFalse(vmService.getCourseVmModel("removeModel").isPresent());
+        assertTrue(teamService.getCourse("removeModel").isPresent());
+    }
+}
@@ -0,0 +1,274 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.TestFixture;
+import it.polito.ai.virtualLabs.entities.*;
+import it.polito.ai.virtualLabs.services.exceptions.ConcurrentUpdateException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//the state machines hit by concurrent requests end in a consistent state, without locking the rows they read
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:concurrency;DB_CLOSE_DELAY=-1;MODE=MySQL;LOCK_TIMEOUT=10000")
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class OptimisticLockingTests {
+
+    private static final String COURSE = "concurrency";
+    private static final String PROFESSOR_ID = "d000200";
+    private static final int THREADS = 8;
+    //writers of the same row that must all succeed: every attempt lost is a commit of another writer,
+    //so @RetryOnConflict guarantees it for at most as many writers as its attempts
+    private static final int WRITERS = 5;
+    private static final int PROPOSALS = 5;
+    private static final int PROPOSAL_SIZE = 4;
+    private static final int POWERED_VMS = 4;
+    private static final int MAX_VCPU = 8;
+    private static final int MAX_ACTIVE_VM = 2;
+
+    @Autowired
+    NotificationService notificationService;
+    @Autowired
+    VmService vmService;
+    @Autowired
+    LabService labService;
+    @Autowired
+    VmStateRegistry vmStateRegistry;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @BeforeAll
+    void seed() {
+        transactionTemplate.execute(status -> {
+            TestFixture fixture = new TestFixture(entityManager);
+            Course course = fixture.course(COURSE, "C", 2, PROPOSAL_SIZE);
+            Professor p = fixture.professor(PROFESSOR_ID, course);
+            VmModel vmModel = fixture.vmModel(course, p, MAX_VCPU, 64, 1024, POWERED_VMS, MAX_ACTIVE_VM);
+
+            //members of the proposals, then of the team editing its vms, then of the team powering them on
+            List<Student> students = new ArrayList<>();
+            for(int i = 0; i < PROPOSALS * PROPOSAL_SIZE + 4; i++)
+                students.add(fixture.student(studentId(i), course));
+
+            for(int i = 0; i < PROPOSALS; i++) {
+                TeamProposal tp = new TeamProposal();
+                tp.setTeamName("proposal" + i);
+                tp.setCreatorId(studentId(i * PROPOSAL_SIZE));
+                tp.setStatus(TeamProposal.TeamProposalStatus.PENDING);
+                tp.setStatusDesc("Other students must accept the proposal yet");
+                tp.setExpiryDate(LocalDateTime.now().plusDays(1));
+                tp.setCourse(course);
+                for(int m = 0; m < PROPOSAL_SIZE; m++)
+                    tp.addStudent(students.get(i * PROPOSAL_SIZE + m));
+                entityManager.persist(tp);
+                for(Student s : tp.getStudents())
+                    entityManager.persist(new TeamProposalToken(token(i, s.getId()), tp, s));
+            }
+
+            int first = PROPOSALS * PROPOSAL_SIZE;
+            Team editing = fixture.team("editing", course, students.subList(first, first + 2));
+            for(int v = 0; v < 2; v++)
+                fixture.vm(editing, vmModel, students.get(first), true, 2, 4, 20);
+            Team powering = fixture.team("powering", course, students.subList(first + 2, first + 4));
+            for(int v = 0; v < POWERED_VMS; v++)
+                fixture.vm(powering, vmModel, students.get(first + 2), true, 1, 4, 20);
+
+            LocalDateTime now = LocalDateTime.now();
+            Assignment assignment = fixture.assignment("assignment", "assignment", course, p, now.minusDays(2), now.minusDays(1));
+
+            for(int r = 0; r < 2; r++) {
+                Report report = new Report();
+                report.setStatus(Report.ReportStatus.SUBMITTED);
+                report.setOwner(students.get(first + r));
+                report.setAssignment(assignment);
+                entityManager.persist(report);
+
+                Version version = new Version();
+                version.setTitle("version");
+                version.setContent("version");
+                version.setReport(report);
+                entityManager.persist(version);
+            }
+            return null;
+        });
+        vmStateRegistry.rebuild();
+    }
+
+    @AfterEach
+    void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void proposalAcceptedByAllMembersAtOnceCreatesOneTeam() throws Exception {
+        for(int i = 0; i < PROPOSALS; i++) {
+            Long tpId = entityManager.createQuery("SELECT tp.id FROM TeamProposal tp WHERE tp.teamName = :name", Long.class)
+                    .setParameter("name", "proposal" + i)
+                    .getSingleResult();
+            int proposal = i;
+            List<Boolean> accepted = concurrently(PROPOSAL_SIZE, m ->
+                    notificationService.acceptByToken(tpId, token(proposal, studentId(proposal * PROPOSAL_SIZE + m))));
+
+            assertFalse(accepted.contains(false));
+            assertEquals(TeamProposal.TeamProposalStatus.CONFIRMED, entityManager
+                    .createQuery("SELECT tp.status FROM TeamProposal tp WHERE tp.id = :id", TeamProposal.TeamProposalStatus.class)
+                    .setParameter("id", tpId)
+                    .getSingleResult());
+            assertEquals(1L, entityManager.createQuery("SELECT COUNT(t) FROM Team t WHERE t.name = :name", Long.class)
+                    .setParameter("name", "proposal" + i)
+                    .getSingleResult());
+            assertEquals((long) PROPOSAL_SIZE, entityManager
+                    .createQuery("SELECT COUNT(s) FROM Team t INNER JOIN t.students s WHERE t.name = :name", Long.class)
+                    .setParameter("name", "proposal" + i)
+                    .getSingleResult());
+        }
+    }
+
+    @Test
+    void concurrentVmEditsKeepTheTeamQuotaExact() throws Exception {
+        List<Long> vmIds = vmIds("editing");
+        Long editedId = vmIds.get(0);
+        Long otherId = vmIds.get(1);
+        Authentication owner = TestFixture.authentication(studentId(PROPOSALS * PROPOSAL_SIZE), "ROLE_STUDENT");
+
+        //every edit fits the quota on its own, but it can be refused while the others hold their reservations;
+        //a delta computed on a stale vm would leave the quota leaking or freeing resources
+        List<Boolean> edited = concurrently(WRITERS, t -> {
+            SecurityContextHolder.getContext().setAuthentication(owner);
+            return vmService.editVmResources(editedId, 1 + t % (MAX_VCPU - 2), 4, 20);
+        });
+        assertTrue(edited.contains(true));
+
+        SecurityContextHolder.getContext().setAuthentication(owner);
+        int vCPU = vmService.getVm(editedId).get().getVCPU();
+        assertTrue(vmService.editVmResources(otherId, MAX_VCPU - vCPU, 4, 20));
+        assertFalse(vmService.editVmResources(otherId, MAX_VCPU - vCPU + 1, 4, 20));
+    }
+
+    @Test
+    void concurrentPowerOnsNeverExceedTheActiveVms() throws Exception {
+        List<Long> vmIds = vmIds("powering");
+        Authentication owner = TestFixture.authentication(studentId(PROPOSALS * PROPOSAL_SIZE + 2), "ROLE_STUDENT");
+
+        List<Boolean> poweredOn = concurrently(POWERED_VMS, v -> {
+            SecurityContextHolder.getContext().setAuthentication(owner);
+            return vmService.powerOnVm(vmIds.get(v));
+        });
+
+        assertEquals(MAX_ACTIVE_VM, poweredOn.stream().filter(Boolean::booleanValue).count());
+        assertEquals(MAX_ACTIVE_VM, vmIds.stream().filter(vmStateRegistry::isActive).count());
+    }
+
+    @Test
+    void concurrentGradesAreAppliedOneAfterTheOther() throws Exception {
+        Long reportId = reportIds().get(0);
+        long version = reportVersion(reportId);
+        Authentication professor = TestFixture.authentication(PROFESSOR_ID, "ROLE_PROFESSOR");
+
+        List<Boolean> graded = concurrently(WRITERS, t -> {
+            SecurityContextHolder.getContext().setAuthentication(professor);
+            return labService.gradeReport(reportId, 20f + t);
+        });
+
+        //each grade differs from the others, so every grade written on top of a stale report would be lost
+        assertFalse(graded.contains(false));
+        assertEquals(version + WRITERS, reportVersion(reportId));
+        Report report = entityManager.find(Report.class, reportId);
+        assertEquals(Report.ReportStatus.GRADED, report.getStatus());
+    }
+
+    @Test
+    void concurrentReviewsOfTheSameVersionSucceedOnce() throws Exception {
+        Long reportId = reportIds().get(1);
+        Long versionId = entityManager.createQuery("SELECT v.id FROM Version v WHERE v.report.id = :reportId", Long.class)
+                .setParameter("reportId", reportId)
+                .getSingleResult();
+        Authentication professor = TestFixture.authentication(PROFESSOR_ID, "ROLE_PROFESSOR");
+
+        List<Boolean> reviewed = concurrently(THREADS, t -> {
+            SecurityContextHolder.getContext().setAuthentication(professor);
+            return labService.reviewVersion(versionId, new ByteArrayInputStream(("review" + t).getBytes(StandardCharsets.UTF_8)));
+        });
+
+        assertEquals(1, reviewed.stream().filter(Boolean::booleanValue).count());
+        Version version = entityManager.find(Version.class, versionId);
+        assertTrue(version.isRevised());
+        assertNotNull(version.getReviewKey());
+        assertEquals(Report.ReportStatus.REVISED, entityManager.find(Report.class, reportId).getStatus());
+    }
+
+    //runs the tasks together and waits for all of them, a task that gave up after too many conflicts fails the test
+    private List<Boolean> concurrently(int tasks, IntFunction<Boolean> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for(int t = 0; t < tasks; t++) {
+            int index = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    return task.apply(index);
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+            }));
+        }
+        start.countDown();
+
+        List<Boolean> results = new ArrayList<>();
+        for(Future<Boolean> future : futures) {
+            try {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            } catch (ExecutionException ex) {
+                if(ex.getCause() instanceof ConcurrentUpdateException)
+                    fail("Retries exhausted: " + ex.getCause().getMessage());
+                throw ex;
+            }
+        }
+        return results;
+    }
+
+    private List<Long> vmIds(String teamName) {
+        return entityManager.createQuery("SELECT v.id FROM Vm v WHERE v.team.name = :name ORDER BY v.id", Long.class)
+                .setParameter("name", teamName)
+                .getResultList();
+    }
+
+    private List<Long> reportIds() {
+        return entityManager.createQuery("SELECT r.id FROM Report r ORDER BY r.id", Long.class).getResultList();
+    }
+
+    private long reportVersion(Long reportId) {
+        return entityManager.createQuery("SELECT r.version FROM Report r WHERE r.id = :id", Long.class)
+                .setParameter("id", reportId)
+                .getSingleResult();
+    }
+
+    private static String studentId(int i) {
+        return String.format("s%06d", 200 + i);
+    }
+
+    private static String token(int proposal, String studentId) {
+        return "token" + proposal + "|" + studentId;
+    }
+}
@@ -0,0 +1,103 @@
+package it.polito.ai.virtualLabs.services;
+
+import it.polito.ai.virtualLabs.entities.VmModel;
+import it.polito.ai.virtualLabs.repositories.VmRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+//a release is applied once, whatever the reconciliation running between the commit and its callback reads
+class TeamQuotaLedgerTests {
+
+    private static final Long TEAM_ID = 1L;
+
+    private final VmRepository vmRepository = mock(VmRepository.class);
+    private final TeamQuotaLedger ledger = new TeamQuotaLedger();
+    private final VmModel vmModel = new VmModel();
+
+    @BeforeEach
+    void setUp() {
+        ledger.vmRepository = vmRepository;
+        vmModel.setMaxVCPU(4);
+        vmModel.setMaxRAM(64);
+        vmModel.setMaxDisk(1024);
+        vmModel.setMaxTotVm(4);
+
+        //two vms of 2 vCPUs, one of them removed by the transaction under test
+        when(vmRepository.getResourcesUsedByTeam(TEAM_ID)).thenReturn(Optional.of(resources(4, 8, 40, 2)));
+        when(vmRepository.getResourcesUsedByTeams()).thenReturn(Collections.singletonList(resources(2, 4, 20, 1)));
+        assertTrue(ledger.reserve(TEAM_ID, vmModel, 0, 0, 0, 0));
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if(TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void reconcileBeforeTheReleaseCallbackDoesNotSubtractTheVmTwice() {
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.release(TEAM_ID, 2, 4, 20, 1);
+        //the vm is already deleted in the db when the scheduled reconciliation reads it
+        ledger.reconcile();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertFalse(ledger.reserve(TEAM_ID, vmModel, 3, 4, 20, 1));
+        assertTrue(ledger.reserve(TEAM_ID, vmModel, 2, 4, 20, 1));
+    }
+
+    @Test
+    void rolledBackReleaseKeepsTheResources() {
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.release(TEAM_ID, 2, 4, 20, 1);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertFalse(ledger.reserve(TEAM_ID, vmModel, 1, 4, 20, 1));
+    }
+
+    private void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(s -> s.afterCompletion(status));
+    }
+
+    private static VmRepository.ResourcesUsed resources(long vCPU, long ram, long disk, long vms) {
+        return new VmRepository.ResourcesUsed() {
+            @Override
+            public Long getTeamId() {
+                return TEAM_ID;
+            }
+
+            @Override
+            public Long getUsedVCPU() {
+                return vCPU;
+            }
+
+            @Override
+            public Long getUsedRAM() {
+                return ram;
+            }
+
+            @Override
+            public Long getUsedDisk() {
+                return disk;
+            }
+
+            @Override
+            public long getVmCount() {
+                return vms;
+            }
+        };
+    }
+}
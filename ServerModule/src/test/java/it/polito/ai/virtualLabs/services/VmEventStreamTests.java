@@ -0,0 +1,203 @@
+package it.polito.ai.virtualLabs.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.polito.ai.virtualLabs.TestFixture;
+import it.polito.ai.virtualLabs.entities.*;
+import it.polito.ai.virtualLabs.security.JwtTokenProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.persistence.EntityManager;
+import javax.servlet.Filter;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+//the vm event stream authenticated by its token parameter sends the current states, then every power change and removal,
+//and drops the desktops it cannot write to
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:stream;DB_CLOSE_DELAY=-1;MODE=MySQL")
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class VmEventStreamTests {
+
+    private static final String COURSE = "stream";
+    private static final String STUDENT_ID = "s000300";
+
+    @Autowired
+    WebApplicationContext context;
+    @Autowired
+    VmService vmService;
+    @Autowired
+    VmEventBroadcaster vmEventBroadcaster;
+    @Autowired
+    VmStateRegistry vmStateRegistry;
+    @Autowired
+    JwtTokenProvider jwtTokenProvider;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    //set to make every write to the open streams fail, as it does once the desktop has gone away
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+
+    private MockMvc mockMvc;
+    private String token;
+    private List<Long> vmIds;
+
+    @BeforeAll
+    void seed() {
+        transactionTemplate.execute(status -> {
+            TestFixture fixture = new TestFixture(entityManager);
+            Course course = fixture.course(COURSE, "S", 2, 4);
+            Professor p = fixture.professor("d000300", course);
+            VmModel vmModel = fixture.vmModel(course, p, 8, 16, 1024, 4, 3);
+            List<Student> students = Arrays.asList(fixture.student(STUDENT_ID, course), fixture.student("s000301", course));
+            Team team = fixture.team("team", course, students);
+            for(int v = 0; v < 3; v++)
+                fixture.vm(team, vmModel, students.get(0), true, 2, 4, 20);
+            return null;
+        });
+        vmStateRegistry.rebuild();
+
+        mockMvc = MockMvcBuilders.webAppContextSetup(context)
+                .apply(springSecurity())
+                .addFilters(brokenClientFilter())
+                .build();
+        token = jwtTokenProvider.createToken(TestFixture.username(STUDENT_ID, "ROLE_STUDENT"), Collections.singletonList("ROLE_STUDENT"));
+        vmIds = entityManager.createQuery("SELECT v.id FROM Vm v ORDER BY v.id", Long.class).getResultList();
+    }
+
+    @AfterEach
+    void reset() {
+        disconnected.set(false);
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void streamSendsTheCurrentStatesThenPowerAndRemovedEvents() throws Exception {
+        Long powered = vmIds.get(0);
+        Long removed = vmIds.get(1);
+        int subscribers = vmEventBroadcaster.getSubscriberCount();
+
+        MvcResult result = stream(powered, removed);
+        assertEquals(Arrays.asList("power:" + powered + ":false", "power:" + removed + ":false"), sorted(events(result)));
+        assertEquals(subscribers + 2, vmEventBroadcaster.getSubscriberCount());
+
+        SecurityContextHolder.getContext().setAuthentication(TestFixture.authentication(STUDENT_ID, "ROLE_STUDENT"));
+        assertTrue(vmService.powerOnVm(powered));
+        vmService.removeVm(removed);
+
+        List<String> events = events(result);
+        assertEquals(Arrays.asList("power:" + powered + ":true", "removed:" + removed), events.subList(2, events.size()));
+        //a removed vm has no subscribers left
+        assertEquals(subscribers + 1, vmEventBroadcaster.getSubscriberCount());
+    }
+
+    @Test
+    void desktopThatCannotBeWrittenToIsUnsubscribed() throws Exception {
+        Long vmId = vmIds.get(2);
+        int subscribers = vmEventBroadcaster.getSubscriberCount();
+
+        stream(vmId);
+        assertEquals(subscribers + 1, vmEventBroadcaster.getSubscriberCount());
+
+        disconnected.set(true);
+        SecurityContextHolder.getContext().setAuthentication(TestFixture.authentication(STUDENT_ID, "ROLE_STUDENT"));
+        assertTrue(vmService.powerOnVm(vmId));
+
+        assertEquals(subscribers, vmEventBroadcaster.getSubscriberCount());
+    }
+
+    @Test
+    void tokenParameterIsOnlyReadByTheStream() throws Exception {
+        mockMvc.perform(get("/API/vms/" + vmIds.get(0))
+                .param("access_token", token)
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isForbidden());
+    }
+
+    private MvcResult stream(Long... vmIds) throws Exception {
+        return mockMvc.perform(get("/API/vms/stream")
+                .param("vmIds", Arrays.stream(vmIds).map(String::valueOf).toArray(String[]::new))
+                .param("access_token", token)
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+    }
+
+    //the events received by the desktop as name:vmId, followed by :active for the power events
+    private List<String> events(MvcResult result) throws Exception {
+        List<String> events = new ArrayList<>();
+        String name = null;
+        for(String line : result.getResponse().getContentAsString().split("\n")) {
+            if(line.startsWith("event:")) {
+                name = line.substring("event:".length());
+            } else if(line.startsWith("data:")) {
+                JsonNode data = objectMapper.readTree(line.substring("data:".length()));
+                events.add(name + ":" + data.get("vmId").asLong() + (data.has("active") ? ":" + data.get("active").asBoolean() : ""));
+            }
+        }
+        return events;
+    }
+
+    private List<String> sorted(List<String> events) {
+        Collections.sort(events);
+        return events;
+    }
+
+    private Filter brokenClientFilter() {
+        return (req, res, chain) -> chain.doFilter(req, new HttpServletResponseWrapper((HttpServletResponse) res) {
+            @Override
+            public ServletOutputStream getOutputStream() throws IOException {
+                ServletOutputStream out = super.getOutputStream();
+                return new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return out.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        out.setWriteListener(writeListener);
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        if(disconnected.get())
+                            throw new IOException("Broken pipe");
+                        out.write(b);
+                    }
+                };
+            }
+        });
+    }
+}